@@ -1,9 +1,12 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.callHierarchy
 
+import com.intellij.platform.diagnostic.telemetry.Scope
+import com.intellij.platform.diagnostic.telemetry.TelemetryManager
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSConfiguration
 import com.jetbrains.ls.api.features.resolve.getConfigurationEntryId
+import com.jetbrains.ls.api.features.utils.traceProvider
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.CallHierarchyIncomingCall
 import com.jetbrains.lsp.protocol.CallHierarchyIncomingCallsParams
@@ -13,6 +16,8 @@ import com.jetbrains.lsp.protocol.CallHierarchyOutgoingCallsParams
 import com.jetbrains.lsp.protocol.CallHierarchyPrepareParams
 
 object LSCallHierarchy {
+    val scope: Scope = Scope("lsp.callHierarchy")
+    private val tracer = TelemetryManager.getTracer(scope)
 
     context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
     suspend fun prepareCallHierarchy(params: CallHierarchyPrepareParams): List<CallHierarchyItem>? {
@@ -24,13 +29,21 @@ object LSCallHierarchy {
     suspend fun incomingCalls(params: CallHierarchyIncomingCallsParams): List<CallHierarchyIncomingCall>? {
         val providerId = getConfigurationEntryId(params.item.data) ?: return null
         val provider = configuration.entryById<LSCallHierarchyProvider>(providerId) ?: return null
-        return provider.incomingCalls(params)
+        return tracer.traceProvider(
+            spanName = "provider.callHierarchy.incomingCalls",
+            provider = provider,
+            block = { provider.incomingCalls(params) },
+        )
     }
 
     context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
     suspend fun outgoingCalls(params: CallHierarchyOutgoingCallsParams): List<CallHierarchyOutgoingCall>? {
         val providerId = getConfigurationEntryId(params.item.data) ?: return null
         val provider = configuration.entryById<LSCallHierarchyProvider>(providerId) ?: return null
-        return provider.outgoingCalls(params)
+        return tracer.traceProvider(
+            spanName = "provider.callHierarchy.outgoingCalls",
+            provider = provider,
+            block = { provider.outgoingCalls(params) },
+        )
     }
 }
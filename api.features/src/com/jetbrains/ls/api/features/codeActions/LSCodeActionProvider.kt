@@ -3,6 +3,7 @@ package com.jetbrains.ls.api.features.codeActions
 
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSLanguageSpecificConfigurationEntry
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.CodeAction
 import com.jetbrains.lsp.protocol.CodeActionKind
@@ -23,3 +24,18 @@ interface LSCodeActionProvider : LSLanguageSpecificConfigurationEntry {
     context(server: LSServer, handlerContext: LspHandlerContext)
     fun getCodeActions(params: CodeActionParams): Flow<CodeAction>
 }
+
+/**
+ * A [LSCodeActionProvider] which may leave the costly parts of its code actions (an `edit` or a `command`) out of
+ * [getCodeActions] and compute them on `codeAction/resolve` instead, once the user actually picks one.
+ *
+ * Such code actions carry a [ResolveDataWithConfigurationEntryId][com.jetbrains.ls.api.features.resolve.ResolveDataWithConfigurationEntryId]
+ * as their `data`, so the request can be dispatched back to the provider.
+ */
+interface LSResolvableCodeActionProvider : LSCodeActionProvider, LSUniqueConfigurationEntry {
+    /**
+     * Returns [codeAction] with its missing parts filled in, or `null` if it cannot be resolved.
+     */
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    suspend fun resolveCodeAction(codeAction: CodeAction): CodeAction?
+}
@@ -6,6 +6,7 @@ import com.intellij.platform.diagnostic.telemetry.TelemetryManager
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSConfiguration
 import com.jetbrains.ls.api.features.partialResults.LSConcurrentResponseHandler
+import com.jetbrains.ls.api.features.resolve.getConfigurationEntryId
 import com.jetbrains.ls.api.features.utils.traceProvider
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.CodeAction
@@ -35,6 +36,25 @@ object LSCodeActions {
         )
     }
 
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    suspend fun resolveCodeAction(codeAction: CodeAction): CodeAction {
+        val uniqueId = getConfigurationEntryId(codeAction.data) ?: return codeAction
+        val codeActionProvider = configuration.entryById<LSResolvableCodeActionProvider>(uniqueId) ?: return codeAction
+        return tracer.traceProvider(
+            spanName = "provider.codeAction.resolve",
+            provider = codeActionProvider,
+            block = { codeActionProvider.resolveCodeAction(codeAction) ?: codeAction },
+        )
+    }
+
+    /**
+     * Whether any provider resolves its code actions lazily, i.e. whether `resolveProvider` has to be advertised.
+     */
+    context(configuration: LSConfiguration)
+    fun supportsResolve(): Boolean {
+        return configuration.entries<LSResolvableCodeActionProvider>().isNotEmpty()
+    }
+
     context(configuration: LSConfiguration)
     fun supportedCodeActionKinds(): List<CodeActionKind> {
         return configuration.entries<LSCodeActionProvider>().flatMapTo(mutableSetOf()) { it.providesOnlyKinds }.toList()
@@ -1,10 +1,14 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.diagnostics
 
+import com.intellij.openapi.application.readAction
+import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.platform.diagnostic.telemetry.Scope
 import com.intellij.platform.diagnostic.telemetry.TelemetryManager
+import com.intellij.platform.diagnostic.telemetry.helpers.useWithScope
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.diagnosticsEnabled
+import com.jetbrains.ls.api.core.util.findVirtualFile
 import com.jetbrains.ls.api.features.LSConfiguration
 import com.jetbrains.ls.api.features.partialResults.LSConcurrentResponseHandler
 import com.jetbrains.ls.api.features.utils.traceProvider
@@ -12,7 +16,21 @@ import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.DocumentDiagnosticParams
 import com.jetbrains.lsp.protocol.DocumentDiagnosticReport
 import com.jetbrains.lsp.protocol.DocumentDiagnosticReportKind
+import com.jetbrains.lsp.protocol.TextDocumentIdentifier
+import com.jetbrains.lsp.protocol.WorkspaceDiagnosticParams
+import com.jetbrains.lsp.protocol.WorkspaceDiagnosticReport
+import com.jetbrains.lsp.protocol.WorkspaceDocumentDiagnosticReport
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.flatMapMerge
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.toList
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.seconds
 
+@OptIn(ExperimentalCoroutinesApi::class)
 object LSDiagnostic {
     val scope: Scope = Scope("lsp.diagnostic")
     private val tracer = TelemetryManager.getTracer(scope)
@@ -23,6 +41,92 @@ object LSDiagnostic {
             return DocumentDiagnosticReport.EMPTY_FULL
         }
 
+        return server[LSDocumentDiagnosticRequestsComponent].track { computeDiagnostics(params) }
+    }
+
+    /**
+     * Pulls the diagnostics of all source files of the workspace, as [getDiagnostics] does for a single document.
+     *
+     * Files are checked by at most [parallelism] coroutines, the most recently changed files first, then the files
+     * next to them, which are the most likely to depend on them. Before each file, the check waits, for at most
+     * [MAX_PAUSE_FOR_DOCUMENT_REQUESTS], for the `textDocument/diagnostic` requests in progress to finish, since those
+     * are for the documents the user looks at.
+     *
+     * The reports are all returned at once: partial results of `workspace/diagnostic` are `{ items }` objects, which
+     * the generic streaming of [LSConcurrentResponseHandler] does not send.
+     */
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    suspend fun getWorkspaceDiagnostics(
+        params: WorkspaceDiagnosticParams,
+        parallelism: Int = DEFAULT_WORKSPACE_DIAGNOSTICS_PARALLELISM,
+    ): WorkspaceDiagnosticReport {
+        if (!server.indexingProgress.value.diagnosticsEnabled) {
+            return WorkspaceDiagnosticReport(items = emptyList())
+        }
+
+        val previousResultIds = params.previousResultIds.associate { it.uri to it.value }
+        return tracer.spanBuilder("diagnostics.workspace").useWithScope { span ->
+            val files = prioritizedWorkspaceSourceFiles(server[LSDiagnosticResultIdsComponent].recentlyChangedFileUrls)
+            val documentRequests = server[LSDocumentDiagnosticRequestsComponent]
+            val pausedNanos = AtomicLong()
+            val unchangedFiles = AtomicLong()
+            val startNanos = System.nanoTime()
+            val reports = files.asFlow()
+                .flatMapMerge(concurrency = parallelism) { textDocument ->
+                    flow {
+                        val pauseStartNanos = System.nanoTime()
+                        documentRequests.awaitNoneInProgress(MAX_PAUSE_FOR_DOCUMENT_REQUESTS)
+                        pausedNanos.addAndGet(System.nanoTime() - pauseStartNanos)
+
+                        val documentParams = DocumentDiagnosticParams(
+                            textDocument = textDocument,
+                            identifier = params.identifier,
+                            previousResultId = previousResultIds[textDocument.uri],
+                            workDoneToken = null,
+                            partialResultToken = null,
+                        )
+                        val report = computeDiagnostics(documentParams)
+                        emit(
+                            WorkspaceDocumentDiagnosticReport(
+                                kind = report.kind,
+                                resultId = report.resultId,
+                                items = report.items,
+                                uri = textDocument.uri,
+                                version = null,
+                            )
+                        )
+                    }
+                }
+                .onEach { report ->
+                    if (report.kind == DocumentDiagnosticReportKind.Unchanged) unchangedFiles.incrementAndGet()
+                }
+                .toList()
+
+            val elapsedNanos = System.nanoTime() - startNanos
+            span.setAttribute("files.count", files.size.toLong())
+            span.setAttribute("files.unchanged", unchangedFiles.get())
+            span.setAttribute("files.perSecond", files.size * 1e9 / elapsedNanos.coerceAtLeast(1))
+            span.setAttribute("parallelism", parallelism.toLong())
+            span.setAttribute("paused.ms", TimeUnit.NANOSECONDS.toMillis(pausedNanos.get()))
+            WorkspaceDiagnosticReport(items = reports)
+        }
+    }
+
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    private suspend fun computeDiagnostics(params: DocumentDiagnosticParams): DocumentDiagnosticReport {
+        // Captured before computing: an event arriving meanwhile starts a new generation, and the report computed
+        // here must not be taken as up to date for it.
+        val resultIds = server[LSDiagnosticResultIdsComponent]
+        val resultId = documentModificationStamp(params.textDocument)?.let { resultIds.resultId(it) }
+        if (resultId != null && resultId == params.previousResultId && resultIds.isIssued(params.textDocument.uri, resultId)) {
+            return DocumentDiagnosticReport(
+                kind = DocumentDiagnosticReportKind.Unchanged,
+                resultId = resultId,
+                items = emptyList(),
+                relatedDocuments = null,
+            )
+        }
+
         // partial results in diagnotics, according to the LSP spec (https://microsoft.github.io/language-server-protocol/specifications/lsp/3.17/specification/#documentDiagnosticReportPartialResult),
         // support only partial results for related diagnostics, not for the diagnostics for the current document,
         // so we just collect results concurrently from all handlers
@@ -37,9 +141,12 @@ object LSDiagnostic {
             },
         )
 
+        if (resultId != null) {
+            resultIds.markIssued(params.textDocument.uri, resultId)
+        }
         return DocumentDiagnosticReport(
             DocumentDiagnosticReportKind.Full,
-            resultId = null,
+            resultId = resultId,
             items = diagnostics,
             relatedDocuments = null,
         )
@@ -63,4 +170,25 @@ object LSDiagnostic {
             relatedDocuments = null,
         )
     }
+
+    context(server: LSServer)
+    private suspend fun documentModificationStamp(textDocument: TextDocumentIdentifier): Long? {
+        return server.withAnalysisContext {
+            readAction {
+                val virtualFile = textDocument.findVirtualFile() ?: return@readAction null
+                FileDocumentManager.getInstance().getCachedDocument(virtualFile)?.modificationStamp
+                    ?: virtualFile.modificationStamp
+            }
+        }
+    }
 }
+
+/**
+ * Half of the cores, leaving the rest to the requests for the documents the user is working with.
+ */
+private val DEFAULT_WORKSPACE_DIAGNOSTICS_PARALLELISM: Int = (Runtime.getRuntime().availableProcessors() / 2).coerceAtLeast(1)
+
+/**
+ * The longest a file of the workspace waits for the `textDocument/diagnostic` requests in progress.
+ */
+private val MAX_PAUSE_FOR_DOCUMENT_REQUESTS = 2.seconds
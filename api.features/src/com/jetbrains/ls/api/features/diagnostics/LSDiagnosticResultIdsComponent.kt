@@ -0,0 +1,81 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.diagnostics
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.ls.snapshot.api.impl.core.rocks.toList
+import com.jetbrains.lsp.protocol.DocumentUri
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the `resultId`s of the diagnostic reports issued by [LSDiagnostic.getDiagnostics], so that pulling the
+ * diagnostics of a document which cannot have changed since is answered by an unchanged report.
+ *
+ * The diagnostics of a document depend on the other files of the workspace as well, so any change of the files or
+ * of the workspace model starts a new [generation][LSDiagnosticResultIds.generation], which no earlier `resultId`
+ * matches. The files changed most recently are remembered across generations, so that
+ * [LSDiagnostic.getWorkspaceDiagnostics] can check them first.
+ */
+object LSDiagnosticResultIdsComponent : WorkspaceComponent<LSDiagnosticResultIds> {
+    override fun init(configData: LSConfigurationData): LSDiagnosticResultIds =
+        LSDiagnosticResultIds(generation = 0)
+
+    override fun handleEvent(event: WorkspaceEvent, state: LSDiagnosticResultIds): LSDiagnosticResultIds =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles -> LSDiagnosticResultIds(
+                generation = state.generation + 1,
+                recentlyChangedFileUrls = (event.files.toList().map { it.url } + state.recentlyChangedFileUrls)
+                    .distinct()
+                    .take(RECENTLY_CHANGED_FILES_LIMIT),
+            )
+            is WorkspaceEvent.WorkspaceModelChanged ->
+                LSDiagnosticResultIds(state.generation + 1, state.recentlyChangedFileUrls)
+            // Issued ids take no memory worth dropping, and the diagnostics do not change.
+            WorkspaceEvent.LowMemory -> state
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: LSDiagnosticResultIds,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: LSDiagnosticResultIds,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+/**
+ * The `resultId`s issued within a single [generation] of the workspace.
+ *
+ * A `resultId` is made of the [generation] and the modification stamp of the document, and is only recognized once
+ * a report carrying it was issued for the document, so ids from a previous run of the server never match.
+ */
+class LSDiagnosticResultIds internal constructor(
+    val generation: Long,
+    /** Urls of the files changed most recently, the most recent first. */
+    val recentlyChangedFileUrls: List<String> = emptyList(),
+) {
+    private val issued = ConcurrentHashMap<DocumentUri, String>()
+
+    fun resultId(documentModificationStamp: Long): String = "$generation-$documentModificationStamp"
+
+    fun isIssued(uri: DocumentUri, resultId: String): Boolean = issued[uri] == resultId
+
+    fun markIssued(uri: DocumentUri, resultId: String) {
+        issued[uri] = resultId
+    }
+}
+
+private const val RECENTLY_CHANGED_FILES_LIMIT = 100
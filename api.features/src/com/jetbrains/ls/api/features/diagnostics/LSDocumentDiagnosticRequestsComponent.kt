@@ -0,0 +1,65 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.diagnostics
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlin.time.Duration
+
+/**
+ * Counts the `textDocument/diagnostic` requests in progress on the server, which
+ * [LSDiagnostic.getWorkspaceDiagnostics] gives way to.
+ *
+ * The requests in progress do not depend on the workspace, so the counter is kept on every event.
+ */
+object LSDocumentDiagnosticRequestsComponent : WorkspaceComponent<LSDocumentDiagnosticRequests> {
+    override fun init(configData: LSConfigurationData): LSDocumentDiagnosticRequests = LSDocumentDiagnosticRequests()
+
+    override fun handleEvent(event: WorkspaceEvent, state: LSDocumentDiagnosticRequests): LSDocumentDiagnosticRequests =
+        state
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: LSDocumentDiagnosticRequests,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: LSDocumentDiagnosticRequests,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+class LSDocumentDiagnosticRequests internal constructor() {
+    private val inProgress = MutableStateFlow(0)
+
+    suspend fun <T> track(request: suspend () -> T): T {
+        inProgress.update { it + 1 }
+        try {
+            return request()
+        } finally {
+            inProgress.update { it - 1 }
+        }
+    }
+
+    /**
+     * Waits until no request is in progress, or for at most [timeout], so that a client pulling the diagnostics of
+     * its documents without a break does not hold the workspace diagnostics back forever.
+     */
+    suspend fun awaitNoneInProgress(timeout: Duration) {
+        withTimeoutOrNull(timeout) { inProgress.first { it == 0 } }
+    }
+}
@@ -0,0 +1,46 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.diagnostics
+
+import com.intellij.openapi.application.readAction
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.vfs.VirtualFile
+import com.jetbrains.ls.api.core.LSServer
+import com.jetbrains.ls.api.core.project
+import com.jetbrains.ls.api.core.util.uri
+import com.jetbrains.ls.api.features.LSConfiguration
+import com.jetbrains.ls.api.features.utils.isSource
+import com.jetbrains.lsp.protocol.DocumentUri
+import com.jetbrains.lsp.protocol.TextDocumentIdentifier
+
+/**
+ * The source files of the workspace in a configured language: the [recentlyChangedFileUrls] first, in their order,
+ * then the files in the same directories as them, which are the most likely to depend on them, then the rest.
+ */
+context(server: LSServer, configuration: LSConfiguration)
+internal suspend fun prioritizedWorkspaceSourceFiles(recentlyChangedFileUrls: List<String>): List<TextDocumentIdentifier> {
+    val files = server.withAnalysisContext {
+        readAction {
+            val fileIndex = ProjectFileIndex.getInstance(project)
+            val files = mutableListOf<VirtualFile>()
+            fileIndex.iterateContent { file ->
+                if (!file.isDirectory && fileIndex.isInSourceContent(file)) {
+                    files.add(file)
+                }
+                true
+            }
+            files
+        }
+    }
+
+    val changedFileRanks = recentlyChangedFileUrls.withIndex().associate { (index, url) -> url to index }
+    val changedDirectoryUrls = recentlyChangedFileUrls.mapTo(HashSet()) { it.substringBeforeLast('/') }
+    return files
+        .sortedWith(
+            compareBy(
+                { file -> changedFileRanks[file.url] ?: Int.MAX_VALUE },
+                { file -> if (file.parent?.url in changedDirectoryUrls) 0 else 1 },
+            )
+        )
+        .map { file -> TextDocumentIdentifier(DocumentUri(file.uri)) }
+        .filter { textDocument -> textDocument.isSource() && configuration.languageFor(textDocument) != null }
+}
@@ -1,15 +1,27 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.hover
 
+import com.intellij.platform.diagnostic.telemetry.Scope
+import com.intellij.platform.diagnostic.telemetry.TelemetryManager
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSConfiguration
+import com.jetbrains.ls.api.features.utils.traceProvider
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.Hover
 import com.jetbrains.lsp.protocol.HoverParams
 
 object LSHover {
+    val scope: Scope = Scope("lsp.hover")
+    private val tracer = TelemetryManager.getTracer(scope)
+
     context(configuration: LSConfiguration, server: LSServer, handlerContext: LspHandlerContext)
     suspend fun getHover(params: HoverParams): Hover? {
-        return configuration.entriesFor<LSHoverProvider>(params.textDocument).firstNotNullOfOrNull { it.getHover(params) }
+        return configuration.entriesFor<LSHoverProvider>(params.textDocument).firstNotNullOfOrNull { provider ->
+            tracer.traceProvider(
+                spanName = "provider.hover",
+                provider = provider,
+                block = { provider.getHover(params) },
+            )
+        }
     }
 }
@@ -6,8 +6,11 @@ import com.jetbrains.ls.api.features.LSConfiguration
 import com.jetbrains.ls.api.features.partialResults.LSConcurrentResponseHandler
 import com.jetbrains.ls.api.features.resolve.getConfigurationEntryId
 import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.implementation.lspClient
+import com.jetbrains.lsp.protocol.DidChangeConfigurationParams
 import com.jetbrains.lsp.protocol.InlayHint
 import com.jetbrains.lsp.protocol.InlayHintParams
+import com.jetbrains.lsp.protocol.Workspace
 
 object LSInlayHints {
     context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
@@ -24,4 +27,18 @@ object LSInlayHints {
         val entry = configuration.entryById<LSInlayHintsProvider>(uniqueId) ?: return hint
         return entry.resolveInlayHint(hint) ?: hint
     }
+
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    suspend fun didChangeConfiguration(params: DidChangeConfigurationParams) {
+        var changed = false
+        for (provider in configuration.entries<LSInlayHintsProvider>()) {
+            changed = provider.didChangeConfiguration(params) || changed
+        }
+        // Without `workspace.inlayHint.refreshSupport`, the client would fail the request, and requests the hints again
+        // on its own. The server config carries no client capabilities, and only a client declaring
+        // `intellijExtensions` is known to be VSCode-based, which supports the refresh.
+        if (changed && server.config.clientSupportsIntellijExtensions) {
+            lspClient.request(Workspace.InlayHintRefresh, Unit)
+        }
+    }
 }
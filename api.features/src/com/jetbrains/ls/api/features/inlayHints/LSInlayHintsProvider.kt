@@ -5,6 +5,7 @@ import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSLanguageSpecificConfigurationEntry
 import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
 import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.protocol.DidChangeConfigurationParams
 import com.jetbrains.lsp.protocol.InlayHint
 import com.jetbrains.lsp.protocol.InlayHintParams
 import kotlinx.coroutines.flow.Flow
@@ -15,4 +16,12 @@ interface LSInlayHintsProvider : LSLanguageSpecificConfigurationEntry, LSUniqueC
 
     context(server: LSServer, handlerContext: LspHandlerContext)
     suspend fun resolveInlayHint(hint: InlayHint): InlayHint?
+
+    /**
+     * Takes the settings of the client changed by `workspace/didChangeConfiguration` into account.
+     *
+     * @return whether the hints provided before may have changed, in which case the client is asked to refresh them
+     */
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    suspend fun didChangeConfiguration(params: DidChangeConfigurationParams): Boolean = false
 }
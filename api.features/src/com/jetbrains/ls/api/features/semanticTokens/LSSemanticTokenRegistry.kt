@@ -1,6 +1,8 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.semanticTokens
 
+import java.util.concurrent.ConcurrentHashMap
+
 class LSSemanticTokenRegistry(
     val types: List<LSSemanticTokenType>,
     val modifiers: List<LSSemanticTokenModifier>,
@@ -45,6 +47,22 @@ class LSSemanticTokenRegistry(
         return modifiers[index]
     }
 
+    private val modifiersToMask = ConcurrentHashMap<List<LSSemanticTokenModifier>, Int>()
+
+    /**
+     * The bitmask of the [modifiers] in `SemanticTokensLegend.tokenModifiers`, computed once per combination.
+     */
+    fun modifiersToMask(modifiers: List<LSSemanticTokenModifier>): Int {
+        if (modifiers.isEmpty()) return 0
+        return modifiersToMask.getOrPut(modifiers) {
+            var mask = 0
+            for (modifier in modifiers) {
+                mask = mask or (1 shl modifierToIndex(modifier))
+            }
+            mask
+        }
+    }
+
     companion object {
         val EMPTY: LSSemanticTokenRegistry = LSSemanticTokenRegistry(
             types = emptyList(),
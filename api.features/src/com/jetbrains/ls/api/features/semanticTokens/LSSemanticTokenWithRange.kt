@@ -26,6 +26,21 @@ class LSSemanticToken(
     fun withModifiers(vararg modifiers: LSSemanticTokenModifier): LSSemanticToken =
         LSSemanticToken(type, this.modifiers + modifiers)
 
+    @Volatile
+    private var encodedModifiers: EncodedModifiers? = null
+
+    /**
+     * The bitmask of [modifiers] in the [registry], kept for the next encoding with the same registry.
+     */
+    internal fun modifiersMask(registry: LSSemanticTokenRegistry): Int {
+        encodedModifiers?.let { if (it.registry === registry) return it.mask }
+        val mask = registry.modifiersToMask(modifiers)
+        encodedModifiers = EncodedModifiers(registry, mask)
+        return mask
+    }
+
+    private class EncodedModifiers(val registry: LSSemanticTokenRegistry, val mask: Int)
+
     override fun toString(): String = "LSSemanticToken($type, $modifiers)"
 
     override fun equals(other: Any?): Boolean =
@@ -3,9 +3,12 @@ package com.jetbrains.ls.api.features.semanticTokens
 
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSConfiguration
+import com.jetbrains.ls.api.features.semanticTokens.encoding.SemanticTokensDeltaEncoder
 import com.jetbrains.ls.api.features.semanticTokens.encoding.SemanticTokensEncoder
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.SemanticTokens
+import com.jetbrains.lsp.protocol.SemanticTokensDelta
+import com.jetbrains.lsp.protocol.SemanticTokensDeltaParams
 import com.jetbrains.lsp.protocol.SemanticTokensParams
 import com.jetbrains.lsp.protocol.SemanticTokensRangeParams
 
@@ -13,11 +16,35 @@ import com.jetbrains.lsp.protocol.SemanticTokensRangeParams
 object LSSemanticTokens {
     context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
     suspend fun semanticTokensFull(params: SemanticTokensParams): SemanticTokens {
+        val encoded = encodeFull(params)
+        val resultId = server[LSSemanticTokensResultsComponent].issue(params.textDocument.uri, encoded)
+        return SemanticTokens(resultId = resultId, data = encoded.asList())
+    }
+
+    /**
+     * LSP method `textDocument/semanticTokens/full/delta`: the edits to the tokens last sent for the document,
+     * or all the tokens when those are not the ones the client has.
+     */
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    suspend fun semanticTokensFullDelta(params: SemanticTokensDeltaParams): LSSemanticTokensDeltaResult {
+        val encoded = encodeFull(SemanticTokensParams(params.textDocument, workDoneToken = null, partialResultToken = null))
+        val results = server[LSSemanticTokensResultsComponent]
+        val previous = results.issued(params.textDocument.uri, params.previousResultId)
+        val resultId = results.issue(params.textDocument.uri, encoded)
+        if (previous == null) {
+            return LSSemanticTokensDeltaResult.Full(SemanticTokens(resultId = resultId, data = encoded.asList()))
+        }
+        return LSSemanticTokensDeltaResult.Delta(
+            SemanticTokensDelta(resultId = resultId, edits = SemanticTokensDeltaEncoder.encode(previous, encoded))
+        )
+    }
+
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    private suspend fun encodeFull(params: SemanticTokensParams): IntArray {
         val providers = configuration.entriesFor<LSSemanticTokensProvider>(params.textDocument)
         val result = providers.flatMap { it.full(params) }
         val registry = createRegistry()
-        val encoded = SemanticTokensEncoder.encode(result, registry)
-        return SemanticTokens(resultId = null, data = encoded)
+        return SemanticTokensEncoder.encodeToIntArray(result, registry)
     }
 
     context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
@@ -40,3 +67,12 @@ object LSSemanticTokens {
         )
     }
 }
+
+/**
+ * The result of [LSSemanticTokens.semanticTokensFullDelta], either of the two forms the LSP allows.
+ */
+sealed interface LSSemanticTokensDeltaResult {
+    class Full(val tokens: SemanticTokens) : LSSemanticTokensDeltaResult
+
+    class Delta(val delta: SemanticTokensDelta) : LSSemanticTokensDeltaResult
+}
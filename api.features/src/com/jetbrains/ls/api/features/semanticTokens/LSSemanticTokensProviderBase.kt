@@ -2,18 +2,32 @@
 package com.jetbrains.ls.api.features.semanticTokens
 
 import com.intellij.openapi.application.readAction
+import com.intellij.openapi.diagnostic.getOrHandleException
+import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.editor.Document
+import com.intellij.openapi.util.TextRange
 import com.intellij.openapi.vfs.findDocument
 import com.intellij.openapi.vfs.findPsiFile
+import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiWhiteSpace
+import com.jetbrains.ls.api.core.LSAnalysisContext
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.project
 import com.jetbrains.ls.api.core.util.findVirtualFile
+import com.jetbrains.ls.api.core.util.toLspRange
+import com.jetbrains.ls.api.core.util.toTextRange
+import com.jetbrains.ls.api.features.utils.LSBackgroundScopeComponent
+import com.jetbrains.lsp.implementation.LspClient
 import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.implementation.lspClient
 import com.jetbrains.lsp.protocol.Range
+import com.jetbrains.lsp.protocol.RequestType
 import com.jetbrains.lsp.protocol.SemanticTokensParams
 import com.jetbrains.lsp.protocol.SemanticTokensRangeParams
 import com.jetbrains.lsp.protocol.TextDocumentIdentifier
+import kotlinx.serialization.builtins.nullable
+import kotlinx.serialization.builtins.serializer
 
 abstract class LSSemanticTokensProviderBase : LSSemanticTokensProvider {
     abstract val supportedTokenTypes: List<LSSemanticTokenTypePredefined>
@@ -25,30 +39,168 @@ abstract class LSSemanticTokensProviderBase : LSSemanticTokensProvider {
     context(server: LSServer)
     protected abstract fun getSemanticTokens(psiFile: PsiFile, document: Document, documentRange: Range?): List<LSSemanticTokenWithRange>
 
+    /**
+     * The tokens of the whole file which can be found from the PSI alone, without resolve, or `null` if the provider
+     * has no such phase.
+     *
+     * When there is such a phase, and the client is known to support `workspace/semanticTokens/refresh`,
+     * `textDocument/semanticTokens/full` is answered with these tokens right away, while [getSemanticTokens] runs in
+     * the background; once it is done, the client is asked to refresh its tokens, and gets the resolved ones until
+     * the document changes.
+     */
+    context(server: LSServer)
+    protected open fun getSyntacticSemanticTokens(psiFile: PsiFile, document: Document): List<LSSemanticTokenWithRange>? = null
+
+    // A single registry keeps the modifier bitmasks it computed, and the ones cached by the tokens, valid.
+    private val registry: LSSemanticTokenRegistry by lazy {
+        LSSemanticTokenRegistry(supportedTokenTypes, supportedTokenModifiers)
+    }
+
     override fun createRegistry(): LSSemanticTokenRegistry {
-        return LSSemanticTokenRegistry(supportedTokenTypes, supportedTokenModifiers)
+        return registry
     }
 
     context(server: LSServer, handlerContext: LspHandlerContext)
     override suspend fun full(params: SemanticTokensParams): List<LSSemanticTokenWithRange> {
-        return getTokens(params.textDocument, range = null)
+        val results = server[LSSemanticTokensResultsComponent]
+        // Without a refresh, the client would keep the syntactic tokens until the document changes. The server config
+        // carries no client capabilities, and only a client declaring `intellijExtensions` is known to be VSCode-based,
+        // which supports `workspace/semanticTokens/refresh`.
+        val resolvesInBackground = server.config.clientSupportsIntellijExtensions
+        val immediate = server.withAnalysisContext {
+            readAction {
+                val (psiFile, document) = findFile(params.textDocument) ?: return@readAction null
+                val stamp = document.modificationStamp
+                results.resolvedTokens(params.textDocument.uri, this@LSSemanticTokensProviderBase, stamp)?.let { resolved ->
+                    return@readAction TokensWithStamp(resolved, stamp, isResolved = true)
+                }
+                if (!resolvesInBackground) return@readAction null
+                getSyntacticSemanticTokens(psiFile, document)?.let { syntactic ->
+                    TokensWithStamp(syntactic, stamp, isResolved = false)
+                }
+            }
+        } ?: return getTokens(params.textDocument, range = null).tokens
+        if (!immediate.isResolved) {
+            resolveInBackground(params.textDocument, immediate.documentModificationStamp, results, lspClient)
+        }
+        return immediate.tokens
     }
 
+    /**
+     * Resolves the tokens of the document as of [documentModificationStamp] in the background of the server, unless
+     * that is already in progress, and asks the [client] to refresh its tokens once they are kept in the results of
+     * the server, along with the other resolves done by then. A resolve of an older version of the document is
+     * cancelled, as is the resolve of a document whose file changes.
+     */
+    context(server: LSServer)
+    private fun resolveInBackground(
+        textDocument: TextDocumentIdentifier,
+        documentModificationStamp: Long,
+        results: LSSemanticTokensResults,
+        client: LspClient,
+    ) {
+        val scope = server[LSBackgroundScopeComponent].scope
+        results.resolveJobs.launch(textDocument.uri, this, documentModificationStamp, scope) {
+            val resolved = getTokens(textDocument, range = null)
+            if (resolved.documentModificationStamp != documentModificationStamp) return@launch
+            server[LSSemanticTokensResultsComponent].putResolvedTokens(
+                textDocument.uri, this@LSSemanticTokensProviderBase, documentModificationStamp, resolved.tokens
+            )
+            results.resolveJobs.scheduleRefresh(scope) {
+                runCatching {
+                    client.request(SemanticTokensRefreshRequest, Unit)
+                }.getOrHandleException {
+                    LOG.debug("workspace/semanticTokens/refresh failed", it)
+                }
+            }
+        }
+    }
+
+    /**
+     * The tokens within the range, taken from the tokens resolved for the whole document when there are, or else
+     * resolved block by block: the blocks resolved for an earlier range of the same version of the document, such as
+     * the previous viewport while scrolling, are reused.
+     */
     context(server: LSServer, handlerContext: LspHandlerContext)
     override suspend fun range(params: SemanticTokensRangeParams): List<LSSemanticTokenWithRange> {
-        return getTokens(params.textDocument, params.range)
+        val results = server[LSSemanticTokensResultsComponent]
+        return server.withAnalysisContext {
+            readAction {
+                val (psiFile, document) = findFile(params.textDocument) ?: return@readAction emptyList()
+                val stamp = document.modificationStamp
+                val tokens = results.resolvedTokens(params.textDocument.uri, this@LSSemanticTokensProviderBase, stamp)
+                    ?: run {
+                        val blocks = results.tokenBlocks(params.textDocument.uri, this@LSSemanticTokensProviderBase, stamp)
+                        tokenBlocks(psiFile, params.range.toTextRange(document)).flatMap { block ->
+                            blocks.getOrPut(block.textRange) {
+                                getSemanticTokens(psiFile, document, block.textRange.toLspRange(document))
+                            }
+                        }
+                    }
+                // A token of an element enclosing several blocks, such as a class name, is found within each of them.
+                tokens.filter { it.range.intersects(params.range) }.distinct()
+            }
+        }
     }
 
+    /**
+     * The elements intersecting [range] whose tokens are resolved together: the top-level ones, unless they are
+     * longer than [MAX_TOKEN_BLOCK_LENGTH], in which case their children are taken instead.
+     */
+    private fun tokenBlocks(psiFile: PsiFile, range: TextRange): List<PsiElement> {
+        val blocks = mutableListOf<PsiElement>()
+        fun collect(parent: PsiElement) {
+            var child = parent.firstChild
+            while (child != null) {
+                if (range.intersects(child.textRange) && child !is PsiWhiteSpace) {
+                    if (child.textLength <= MAX_TOKEN_BLOCK_LENGTH || child.firstChild == null) {
+                        blocks.add(child)
+                    } else {
+                        collect(child)
+                    }
+                }
+                child = child.nextSibling
+            }
+        }
+        collect(psiFile)
+        return blocks
+    }
+
+    private fun Range.intersects(other: Range): Boolean = start <= other.end && other.start <= end
+
     context(server: LSServer)
-    private suspend fun getTokens(textDocument: TextDocumentIdentifier, range: Range?): List<LSSemanticTokenWithRange> {
+    private suspend fun getTokens(textDocument: TextDocumentIdentifier, range: Range?): TokensWithStamp {
         return server.withAnalysisContext {
             readAction {
-                val virtualFile = textDocument.findVirtualFile() ?: return@readAction emptyList()
-                val psiFile = virtualFile.findPsiFile(project)
-                if (psiFile == null) return@readAction emptyList()
-                val document = virtualFile.findDocument() ?: return@readAction emptyList()
-                getSemanticTokens(psiFile, document, range)
+                val (psiFile, document) = findFile(textDocument)
+                    ?: return@readAction TokensWithStamp(emptyList(), documentModificationStamp = -1, isResolved = true)
+                TokensWithStamp(getSemanticTokens(psiFile, document, range), document.modificationStamp, isResolved = true)
             }
         }
     }
+
+    context(analysisContext: LSAnalysisContext)
+    private fun findFile(textDocument: TextDocumentIdentifier): Pair<PsiFile, Document>? {
+        val virtualFile = textDocument.findVirtualFile() ?: return null
+        val psiFile = virtualFile.findPsiFile(project) ?: return null
+        val document = virtualFile.findDocument() ?: return null
+        return psiFile to document
+    }
+
+    private class TokensWithStamp(
+        val tokens: List<LSSemanticTokenWithRange>,
+        val documentModificationStamp: Long,
+        val isResolved: Boolean,
+    )
 }
+
+private val LOG = logger<LSSemanticTokensProviderBase>()
+
+private const val MAX_TOKEN_BLOCK_LENGTH = 4096
+
+/**
+ * LSP request `workspace/semanticTokens/refresh`, sent by the server to make the client request the semantic tokens
+ * of the open documents again.
+ */
+internal val SemanticTokensRefreshRequest: RequestType<Unit, Unit?, Unit> =
+    RequestType("workspace/semanticTokens/refresh", Unit.serializer(), Unit.serializer().nullable, Unit.serializer())
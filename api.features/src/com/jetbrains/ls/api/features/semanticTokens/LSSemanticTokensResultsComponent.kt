@@ -0,0 +1,239 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.semanticTokens
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.TextRange
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.api.core.util.uri
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.ls.snapshot.api.impl.core.rocks.toList
+import com.jetbrains.lsp.protocol.DocumentUri
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.milliseconds
+
+/**
+ * Keeps the last semantic tokens sent for the most recently requested documents, so that
+ * [LSSemanticTokens.semanticTokensFullDelta] can answer with the edits to them, and the tokens resolved by
+ * [LSSemanticTokensProviderBase], in the background for whole documents or block by block for ranges.
+ *
+ * The tokens sent stay what the client has whatever changes in the workspace, so only low memory drops them. The
+ * tokens of a document may depend on any other file, so all resolved tokens are dropped, and the resolves in progress
+ * cancelled, on any change of the files or of the workspace model; only the token blocks of the documents whose files
+ * did not change are kept across a change of the files, being resolved again for the next range requested.
+ */
+object LSSemanticTokensResultsComponent : WorkspaceComponent<LSSemanticTokensResults> {
+    override fun init(configData: LSConfigurationData): LSSemanticTokensResults = LSSemanticTokensResults()
+
+    override fun handleEvent(event: WorkspaceEvent, state: LSSemanticTokensResults): LSSemanticTokensResults =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles ->
+                state.withoutResolvedTokens(changedUris = event.files.toList().mapTo(HashSet()) { DocumentUri(it.uri) })
+            is WorkspaceEvent.WorkspaceModelChanged -> state.withoutResolvedTokens(changedUris = null)
+            WorkspaceEvent.LowMemory -> {
+                state.resolveJobs.cancelAll()
+                LSSemanticTokensResults()
+            }
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: LSSemanticTokensResults,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: LSSemanticTokensResults,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+/**
+ * The encoded semantic tokens last sent, and the tokens resolved, for at most [DOCUMENTS_LIMIT] documents each,
+ * the least recently requested ones being dropped first.
+ */
+class LSSemanticTokensResults private constructor(
+    private val nextResultId: AtomicLong,
+    private val results: MutableMap<DocumentUri, Result>,
+    internal val resolveJobs: SemanticTokensResolveJobs,
+) {
+    internal constructor() : this(AtomicLong(), lruMap(), SemanticTokensResolveJobs())
+
+    private class Result(val resultId: String, val data: IntArray)
+
+    private class ResolvedTokens(val documentModificationStamp: Long, val tokens: List<LSSemanticTokenWithRange>)
+
+    private val resolvedTokens = lruMap<Pair<DocumentUri, LSSemanticTokensProvider>, ResolvedTokens>()
+
+    private class TokenBlocks(
+        val documentModificationStamp: Long,
+        val blocks: MutableMap<TextRange, List<LSSemanticTokenWithRange>> = ConcurrentHashMap(),
+    )
+
+    private val tokenBlocks = lruMap<Pair<DocumentUri, LSSemanticTokensProvider>, TokenBlocks>()
+
+    /**
+     * These results without the tokens resolved for whole documents, whose resolves in progress are cancelled, and
+     * without the token blocks of the documents at [changedUris], or of all documents when it is `null`.
+     */
+    internal fun withoutResolvedTokens(changedUris: Set<DocumentUri>?): LSSemanticTokensResults {
+        resolveJobs.cancelAll()
+        val retained = LSSemanticTokensResults(nextResultId, results, resolveJobs)
+        if (changedUris != null) {
+            synchronized(tokenBlocks) {
+                tokenBlocks.filterTo(retained.tokenBlocks) { (key, _) -> key.first !in changedUris }
+            }
+        }
+        return retained
+    }
+
+    /**
+     * Remembers [data] as the tokens sent for the document at [uri] and returns their `resultId`.
+     */
+    fun issue(uri: DocumentUri, data: IntArray): String {
+        val resultId = nextResultId.incrementAndGet().toString()
+        synchronized(results) {
+            results[uri] = Result(resultId, data)
+        }
+        return resultId
+    }
+
+    /**
+     * The tokens sent for the document at [uri] with [resultId], unless other tokens were sent for it since,
+     * or they were dropped.
+     */
+    fun issued(uri: DocumentUri, resultId: String): IntArray? {
+        val result = synchronized(results) { results[uri] } ?: return null
+        return result.data.takeIf { result.resultId == resultId }
+    }
+
+    /**
+     * The tokens the [provider] resolved for the document at [uri] as of [documentModificationStamp].
+     */
+    internal fun resolvedTokens(
+        uri: DocumentUri,
+        provider: LSSemanticTokensProvider,
+        documentModificationStamp: Long,
+    ): List<LSSemanticTokenWithRange>? {
+        val resolved = synchronized(resolvedTokens) { resolvedTokens[uri to provider] } ?: return null
+        return resolved.tokens.takeIf { resolved.documentModificationStamp == documentModificationStamp }
+    }
+
+    /**
+     * The tokens the [provider] resolved for blocks of the document at [uri] as of [documentModificationStamp],
+     * by the text range of the block, to be filled with the blocks resolved next.
+     */
+    internal fun tokenBlocks(
+        uri: DocumentUri,
+        provider: LSSemanticTokensProvider,
+        documentModificationStamp: Long,
+    ): MutableMap<TextRange, List<LSSemanticTokenWithRange>> = synchronized(tokenBlocks) {
+        val blocks = tokenBlocks[uri to provider]
+            ?.takeIf { it.documentModificationStamp == documentModificationStamp }
+            ?: TokenBlocks(documentModificationStamp).also { tokenBlocks[uri to provider] = it }
+        blocks.blocks
+    }
+
+    internal fun putResolvedTokens(
+        uri: DocumentUri,
+        provider: LSSemanticTokensProvider,
+        documentModificationStamp: Long,
+        tokens: List<LSSemanticTokenWithRange>,
+    ) {
+        synchronized(resolvedTokens) {
+            resolvedTokens[uri to provider] = ResolvedTokens(documentModificationStamp, tokens)
+        }
+    }
+
+    companion object {
+        private const val DOCUMENTS_LIMIT = 32
+
+        private fun <K, V> lruMap(): MutableMap<K, V> =
+            object : LinkedHashMap<K, V>(16, 0.75f, /* accessOrder = */ true) {
+                override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean =
+                    size > DOCUMENTS_LIMIT
+            }
+    }
+}
+
+/**
+ * The resolves of whole documents [LSSemanticTokensProviderBase] runs in the background, at most one per document and
+ * provider, and the `workspace/semanticTokens/refresh` sent once they are done.
+ */
+internal class SemanticTokensResolveJobs {
+    private class ResolveJob(val documentModificationStamp: Long, val job: Job)
+
+    private val jobs = ConcurrentHashMap<Pair<DocumentUri, LSSemanticTokensProvider>, ResolveJob>()
+
+    private var refresh: Job? = null
+
+    /**
+     * Launches [resolve] in the [scope] for the document at [uri] as of [documentModificationStamp], unless the
+     * [provider] is already resolving that version. A resolve of another version of the document is cancelled.
+     */
+    fun launch(
+        uri: DocumentUri,
+        provider: LSSemanticTokensProvider,
+        documentModificationStamp: Long,
+        scope: CoroutineScope,
+        resolve: suspend () -> Unit,
+    ) {
+        val key = uri to provider
+        var launched: ResolveJob? = null
+        jobs.compute(key) { _, running ->
+            if (running != null && running.documentModificationStamp == documentModificationStamp && running.job.isActive) {
+                return@compute running
+            }
+            running?.job?.cancel()
+            ResolveJob(documentModificationStamp, scope.launch(start = CoroutineStart.LAZY) { resolve() })
+                .also { launched = it }
+        }
+        launched?.let { resolveJob ->
+            resolveJob.job.invokeOnCompletion { jobs.remove(key, resolveJob) }
+            resolveJob.job.start()
+        }
+    }
+
+    fun cancelAll() {
+        for (resolveJob in jobs.values) {
+            resolveJob.job.cancel()
+        }
+    }
+
+    /**
+     * Runs [sendRefresh] in the [scope] once the resolves finishing within [REFRESH_DEBOUNCE], and the ones still
+     * running then, are done, unless such a refresh is already pending: the client then requests the tokens of all
+     * its documents once, rather than once per resolved document.
+     */
+    fun scheduleRefresh(scope: CoroutineScope, sendRefresh: suspend () -> Unit) {
+        synchronized(this) {
+            if (refresh?.isActive == true) return
+            refresh = scope.launch {
+                delay(REFRESH_DEBOUNCE)
+                jobs.values.map { it.job }.joinAll()
+                // A resolve finishing from now on needs a refresh of its own.
+                synchronized(this@SemanticTokensResolveJobs) { refresh = null }
+                sendRefresh()
+            }
+        }
+    }
+
+    companion object {
+        private val REFRESH_DEBOUNCE = 100.milliseconds
+    }
+}
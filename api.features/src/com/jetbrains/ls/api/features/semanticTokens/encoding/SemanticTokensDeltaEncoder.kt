@@ -0,0 +1,39 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.semanticTokens.encoding
+
+import com.jetbrains.lsp.protocol.SemanticTokensEdit
+
+object SemanticTokensDeltaEncoder {
+    /**
+     * The edits turning the [previous] encoded tokens into the [current] ones.
+     *
+     * The tokens are encoded relative to each other, so an edit of the document only changes the encoded tokens around
+     * it, and a single edit replacing everything between the common prefix and the common suffix of both arrays is
+     * enough. The edit is aligned on whole tokens, so that clients never see half a token replaced.
+     */
+    fun encode(previous: IntArray, current: IntArray): List<SemanticTokensEdit> {
+        val minSize = minOf(previous.size, current.size)
+        var prefix = 0
+        while (prefix < minSize && previous[prefix] == current[prefix]) {
+            prefix++
+        }
+        prefix -= prefix % TOKEN_SIZE
+        if (prefix == previous.size && prefix == current.size) return emptyList()
+
+        var suffix = 0
+        while (suffix < minSize - prefix && previous[previous.size - 1 - suffix] == current[current.size - 1 - suffix]) {
+            suffix++
+        }
+        suffix -= suffix % TOKEN_SIZE
+
+        return listOf(
+            SemanticTokensEdit(
+                start = prefix,
+                deleteCount = previous.size - prefix - suffix,
+                data = current.copyOfRange(prefix, current.size - suffix).asList(),
+            )
+        )
+    }
+
+    private const val TOKEN_SIZE = 5
+}
@@ -1,58 +1,39 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.semanticTokens.encoding
 
-import com.jetbrains.ls.api.features.semanticTokens.LSSemanticTokenModifier
 import com.jetbrains.ls.api.features.semanticTokens.LSSemanticTokenRegistry
 import com.jetbrains.ls.api.features.semanticTokens.LSSemanticTokenWithRange
 import com.jetbrains.lsp.protocol.Position
-import com.jetbrains.lsp.protocol.Range
 
 object SemanticTokensEncoder {
-    fun encode(ranges: List<LSSemanticTokenWithRange>, registry: LSSemanticTokenRegistry): List<Int> {
-        if (ranges.isEmpty()) return emptyList()
-        val rangesSorted = ranges.makeTokensSpanSingleLine().sortedBy { it.range.start }
-        var previous = Position.ZERO
-        val result = mutableListOf<Int>()
-        for (range in rangesSorted) {
-            val encoded = encode(range, previous, registry)
-            result.addAll(encoded)
-            previous = range.range.start
-        }
-        return result
-    }
+    fun encode(ranges: List<LSSemanticTokenWithRange>, registry: LSSemanticTokenRegistry): List<Int> =
+        encodeToIntArray(ranges, registry).asList()
 
     /**
-     * Not all editors support multiline tokens `SemanticTokensClientCapabilities.makeSingleLineTokens`
-     * even vscode at this moment does not: https://github.com/microsoft/vscode/issues/200764
-     *
-     * So we just make those tokens to be single-line ones by unwrapping them.
-     * Probably later, we should take the `SemanticTokensClientCapabilities.makeSingleLineTokens` into account and do no unwrap if this capability is supported.
+     * Encodes the tokens straight into an array of the exact size, without boxing and without intermediate objects
+     * for the lines of multiline tokens.
      */
-    private fun List<LSSemanticTokenWithRange>.makeTokensSpanSingleLine(): List<LSSemanticTokenWithRange> = buildList {
-        for (range in this@makeTokensSpanSingleLine) {
-            if (range.range.start.line == range.range.end.line) {
-                add(range)
-            } else {
-                val lines = range.range.getLineRanges()
-                for (lineRange in lines) {
-                    add(LSSemanticTokenWithRange(range.token, lineRange))
-                }
-            }
+    fun encodeToIntArray(ranges: List<LSSemanticTokenWithRange>, registry: LSSemanticTokenRegistry): IntArray {
+        if (ranges.isEmpty()) return EMPTY
+        // Providers mostly report tokens in the order of the document, so sorting is rarely needed.
+        val rangesSorted = if (ranges.isSortedByStart()) ranges else ranges.sortedBy { it.range.start }
+        var size = 0
+        for (range in rangesSorted) {
+            size += (range.range.end.line - range.range.start.line + 1) * TOKEN_SIZE
+        }
+        val result = IntArray(size)
+        val writer = Writer(result)
+        for (range in rangesSorted) {
+            writer.write(range, registry)
         }
+        return result
     }
 
-    private fun Range.getLineRanges(): List<Range> {
-        if (start.line == end.line) {
-            return listOf(this)
-        } else {
-            return buildList {
-                add(Range.fromPositionTillLineEnd(start))
-                for (line in start.line + 1 until end.line) {
-                    add(Range.fullLine(line))
-                }
-                add(Range.fromLineStartTillPosition(end))
-            }
+    private fun List<LSSemanticTokenWithRange>.isSortedByStart(): Boolean {
+        for (i in 1 until size) {
+            if (this[i - 1].range.start > this[i].range.start) return false
         }
+        return true
     }
 
     /**
@@ -64,32 +45,47 @@ object SemanticTokensEncoder {
      *     at index 5*i+3 - tokenType: will be looked up in SemanticTokensLegend.tokenTypes. We currently ask that tokenType < 65536.
      *     at index 5*i+4 - tokenModifiers: each set bit will be looked up in SemanticTokensLegend.tokenModifiers
      */
-    private fun encode(range: LSSemanticTokenWithRange, from: Position, registry: LSSemanticTokenRegistry): List<Int> {
-        return listOf(
-            /*0*/ range.range.start.line - from.line,
-            /*1*/ encodeDeltaStart(from, range.range),
-            /*2*/ encodeLength(range.range),
-            /*3*/ registry.typeToIndex(range.token.type),
-            /*4*/ encodeModifiers(range.token.modifiers, registry),
-        )
-    }
-
-    private fun encodeLength(range: Range): Int {
-        require(range.start.line == range.end.line)
-        return range.end.character - range.start.character
-    }
+    private class Writer(private val result: IntArray) {
+        private var offset = 0
+        private var previousLine = 0
+        private var previousCharacter = 0
 
-    private fun encodeDeltaStart(from: Position, range: Range): Int = when {
-        from.line == range.start.line -> range.start.character - from.character
-        else -> range.start.character
-    }
+        /**
+         * Not all editors support multiline tokens `SemanticTokensClientCapabilities.makeSingleLineTokens`
+         * even vscode at this moment does not: https://github.com/microsoft/vscode/issues/200764
+         *
+         * So we just make those tokens to be single-line ones by unwrapping them.
+         * Probably later, we should take the `SemanticTokensClientCapabilities.makeSingleLineTokens` into account and do no unwrap if this capability is supported.
+         */
+        fun write(range: LSSemanticTokenWithRange, registry: LSSemanticTokenRegistry) {
+            val type = registry.typeToIndex(range.token.type)
+            val modifiers = range.token.modifiersMask(registry)
+            val start = range.range.start
+            val end = range.range.end
+            if (start.line == end.line) {
+                write(start.line, start.character, end.character - start.character, type, modifiers)
+                return
+            }
+            write(start.line, start.character, Position.EOL_INDEX - start.character, type, modifiers)
+            for (line in start.line + 1 until end.line) {
+                write(line, 0, Position.EOL_INDEX, type, modifiers)
+            }
+            write(end.line, 0, end.character, type, modifiers)
+        }
 
-    private fun encodeModifiers(modifiers: List<LSSemanticTokenModifier>, registry: LSSemanticTokenRegistry): Int {
-        var encoded = 0
-        for (modifier in modifiers) {
-            val modifierIndex = registry.modifierToIndex(modifier)
-            encoded = encoded or (1 shl modifierIndex)
+        private fun write(line: Int, character: Int, length: Int, type: Int, modifiers: Int) {
+            result[offset] = line - previousLine
+            result[offset + 1] = if (line == previousLine) character - previousCharacter else character
+            result[offset + 2] = length
+            result[offset + 3] = type
+            result[offset + 4] = modifiers
+            offset += TOKEN_SIZE
+            previousLine = line
+            previousCharacter = character
         }
-        return encoded
     }
-}
\ No newline at end of file
+
+    private const val TOKEN_SIZE = 5
+
+    private val EMPTY = IntArray(0)
+}
@@ -0,0 +1,68 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.symbols
+
+import com.intellij.psi.codeStyle.NameUtil
+import java.util.PriorityQueue
+
+/**
+ * The names of the symbols of a workspace, matched against a query by camel humps or substrings, like the "Go to
+ * Symbol" popup does, the best matches first.
+ *
+ * Each name keeps a mask of the letters and digits it contains, so that the names missing a character of the query are
+ * skipped without running the matcher, which is what a search over all the names of a large workspace spends its
+ * time on.
+ */
+class SymbolNameIndex(names: Collection<String>) {
+    private val names: Array<String> = names.toTypedArray()
+    private val masks: LongArray = LongArray(this.names.size) { characterMask(this.names[it]) }
+
+    val size: Int get() = names.size
+
+    /**
+     * At most [limit] names matching [query], by decreasing matching degree, then by increasing length, or any
+     * [limit] names for an empty query.
+     */
+    fun search(query: String, limit: Int): List<String> {
+        if (limit <= 0) return emptyList()
+        if (query.isEmpty()) return names.take(limit)
+        val queryMask = characterMask(query)
+        val matcher = NameUtil.buildMatcher("*$query", NameUtil.MatchingCaseSensitivity.NONE)
+        val best = PriorityQueue(MATCH_ORDER.reversed())
+        for (i in names.indices) {
+            if (masks[i] and queryMask != queryMask) continue
+            val name = names[i]
+            if (!matcher.matches(name)) continue
+            best.add(Match(name, matcher.matchingDegree(name)))
+            if (best.size > limit) {
+                best.poll()
+            }
+        }
+        return best.sortedWith(MATCH_ORDER).map { it.name }
+    }
+
+    private class Match(val name: String, val degree: Int)
+
+    companion object {
+        private val MATCH_ORDER: Comparator<Match> = compareByDescending<Match> { it.degree }
+            .thenBy { it.name.length }
+            .thenBy { it.name }
+
+        /**
+         * The letters, case-insensitively, and the digits in [text], as bits of a mask: a name can only match a query
+         * whose mask is included in its own.
+         */
+        private fun characterMask(text: String): Long {
+            var mask = 0L
+            for (c in text) {
+                val bit = when (c) {
+                    in 'a'..'z' -> c - 'a'
+                    in 'A'..'Z' -> c - 'A'
+                    in '0'..'9' -> 26 + (c - '0')
+                    else -> continue
+                }
+                mask = mask or (1L shl bit)
+            }
+            return mask
+        }
+    }
+}
@@ -0,0 +1,67 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.textEdits
+
+import com.jetbrains.lsp.protocol.Position
+import com.jetbrains.lsp.protocol.Range
+import com.jetbrains.lsp.protocol.TextEdit
+
+/**
+ * Computes the text edits for a change confined to a small part of a large text, such as the insertion of a
+ * completion item, by running [TextEditsComputer] only over the lines between the common prefix and the common suffix
+ * of both texts.
+ */
+object LocalTextEditsComputer {
+    fun computeTextEdits(oldText: String, newText: String): List<TextEdit> {
+        val changed = findChangedLines(oldText, newText) ?: return emptyList()
+        val edits = TextEditsComputer.computeTextEdits(
+            oldText.substring(changed.startOffset, changed.oldEndOffset),
+            newText.substring(changed.startOffset, changed.newEndOffset),
+        )
+        if (changed.startLine == 0) return edits
+        return edits.map { edit ->
+            edit.copy(
+                range = Range(
+                    Position(edit.range.start.line + changed.startLine, edit.range.start.character),
+                    Position(edit.range.end.line + changed.startLine, edit.range.end.character),
+                )
+            )
+        }
+    }
+
+    /**
+     * The whole lines of [oldText] which differ from [newText], or `null` if both texts are the same.
+     */
+    fun findChangedLines(oldText: CharSequence, newText: CharSequence): ChangedLines? {
+        val minLength = minOf(oldText.length, newText.length)
+        var prefix = 0
+        while (prefix < minLength && oldText[prefix] == newText[prefix]) {
+            prefix++
+        }
+        if (prefix == oldText.length && prefix == newText.length) return null
+
+        var suffix = 0
+        while (suffix < minLength - prefix && oldText[oldText.length - 1 - suffix] == newText[newText.length - 1 - suffix]) {
+            suffix++
+        }
+
+        val startOffset = oldText.lastIndexOf('\n', prefix - 1) + 1
+        val oldEndOffset = oldText.length - suffix
+        val lineEnd = if (oldEndOffset == 0 || oldText[oldEndOffset - 1] == '\n') {
+            oldEndOffset
+        } else {
+            oldText.indexOf('\n', oldEndOffset).let { if (it < 0) oldText.length else it + 1 }
+        }
+        return ChangedLines(
+            startOffset = startOffset,
+            startLine = (0 until startOffset).count { oldText[it] == '\n' },
+            oldEndOffset = lineEnd,
+            newEndOffset = newText.length - suffix + (lineEnd - oldEndOffset),
+        )
+    }
+
+    /**
+     * The lines from [startOffset], the start of the line [startLine], to [oldEndOffset] in the old text, which are
+     * the lines up to [newEndOffset] in the new one.
+     */
+    data class ChangedLines(val startOffset: Int, val startLine: Int, val oldEndOffset: Int, val newEndOffset: Int)
+}
@@ -3,6 +3,7 @@ package com.jetbrains.ls.api.features.typeHierarchy
 
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.features.LSConfiguration
+import com.jetbrains.ls.api.features.partialResults.LSConcurrentResponseHandler
 import com.jetbrains.ls.api.features.resolve.getConfigurationEntryId
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.TypeHierarchyItem
@@ -29,6 +30,11 @@ object LSTypeHierarchy {
     suspend fun subtypes(params: TypeHierarchySubtypesParams): List<TypeHierarchyItem>? {
         val providerId = getConfigurationEntryId(params.item.data) ?: return null
         val provider = configuration.entryById<LSTypeHierarchyProvider>(providerId) ?: return null
-        return provider.subtypes(params)
+        return LSConcurrentResponseHandler.streamResultsIfPossibleOrRespondDirectly(
+            partialResultToken = params.partialResultToken,
+            resultSerializer = TypeHierarchyItem.serializer(),
+            providers = listOf(provider),
+            getResults = { typeHierarchyProvider -> typeHierarchyProvider.subtypes(params) },
+        )
     }
 }
@@ -9,6 +9,7 @@ import com.jetbrains.lsp.protocol.TypeHierarchyItem
 import com.jetbrains.lsp.protocol.TypeHierarchyPrepareParams
 import com.jetbrains.lsp.protocol.TypeHierarchySubtypesParams
 import com.jetbrains.lsp.protocol.TypeHierarchySupertypesParams
+import kotlinx.coroutines.flow.Flow
 
 interface LSTypeHierarchyProvider : LSLanguageSpecificConfigurationEntry, LSUniqueConfigurationEntry {
 
@@ -18,6 +19,10 @@ interface LSTypeHierarchyProvider : LSLanguageSpecificConfigurationEntry, LSUniq
     context(server: LSServer, handlerContext: LspHandlerContext)
     suspend fun supertypes(params: TypeHierarchySupertypesParams): List<TypeHierarchyItem>?
 
+    /**
+     * The direct subtypes of the item, which may be many, so that they are sent as partial results when the client
+     * supports them.
+     */
     context(server: LSServer, handlerContext: LspHandlerContext)
-    suspend fun subtypes(params: TypeHierarchySubtypesParams): List<TypeHierarchyItem>?
+    fun subtypes(params: TypeHierarchySubtypesParams): Flow<TypeHierarchyItem>
 }
@@ -0,0 +1,60 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.utils
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import kotlinx.coroutines.CoroutineName
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+
+/**
+ * Keeps the scope of the work the requests of a server leave running in the background, such as resolving or
+ * prefetching what the next requests need, so that this work is not shared by the servers running in the same
+ * process, and does not fail along with the request which started it.
+ *
+ * The scope is created along with the workspace state of the server, and lives as long as it: it does not depend on
+ * the files or on the workspace model, so it is kept whatever happens to them, and the features cancel the jobs made
+ * obsolete by an event themselves.
+ */
+object LSBackgroundScopeComponent : WorkspaceComponent<LSBackgroundScope> {
+    override fun init(configData: LSConfigurationData): LSBackgroundScope = LSBackgroundScope()
+
+    override fun handleEvent(event: WorkspaceEvent, state: LSBackgroundScope): LSBackgroundScope = state
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: LSBackgroundScope,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: LSBackgroundScope,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+class LSBackgroundScope internal constructor() {
+    /**
+     * The scope to launch background work in. A failing job does not cancel the others.
+     */
+    val scope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.Default + CoroutineName("background"))
+
+    /**
+     * Cancels all background work of the server, to be called when it shuts down.
+     */
+    fun cancel() {
+        scope.cancel()
+    }
+}
@@ -33,6 +33,11 @@ sealed class PsiSerializablePointer {
 
      abstract fun matches(element: PsiElement): Boolean
 
+    /**
+     * The pointer to the same element once the text before it changed its length by [delta].
+     */
+    abstract fun shiftedBy(delta: Int): PsiSerializablePointer
+
     @Serializable
     internal data class PsiFileSerializablePointer(
         override val uri: URI,
@@ -46,6 +51,8 @@ sealed class PsiSerializablePointer {
         override fun matches(element: PsiElement): Boolean {
             return element::class.java.name == elementClass
         }
+
+        override fun shiftedBy(delta: Int): PsiSerializablePointer = this
     }
 
     @Serializable
@@ -71,6 +78,9 @@ sealed class PsiSerializablePointer {
                     && element.startOffset == startOffset
                     && element.endOffset == endOffset
         }
+
+        override fun shiftedBy(delta: Int): PsiSerializablePointer =
+            copy(startOffset = startOffset + delta, endOffset = endOffset + delta)
     }
 
     companion object {
@@ -20,8 +20,21 @@ fun PsiFile.allNonWhitespaceChildren(
     document: Document,
     range: Range?,
 ): List<PsiElement> {
-    val all = descendantsOfType<PsiElement>().filter { it !is PsiWhiteSpace }
-    if (range == null) return all.toList()
+    if (range == null) return descendantsOfType<PsiElement>().filter { it !is PsiWhiteSpace }.toList()
     val textRange = range.toTextRange(document)
-    return all.filter { textRange.intersects(it.textRange) }.toList()
+    // Only the subtrees intersecting the range are visited, in the same order as `descendantsOfType`.
+    val result = mutableListOf<PsiElement>()
+    val stack = ArrayDeque<PsiElement>()
+    stack.addLast(this)
+    while (stack.isNotEmpty()) {
+        val element = stack.removeLast()
+        if (!textRange.intersects(element.textRange)) continue
+        if (element !is PsiWhiteSpace) result.add(element)
+        var child = element.lastChild
+        while (child != null) {
+            stack.addLast(child)
+            child = child.prevSibling
+        }
+    }
+    return result
 }
\ No newline at end of file
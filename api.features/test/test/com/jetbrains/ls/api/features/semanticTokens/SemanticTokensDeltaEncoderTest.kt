@@ -0,0 +1,115 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.semanticTokens
+
+import com.jetbrains.ls.api.features.semanticTokens.encoding.SemanticTokensDeltaEncoder
+import com.jetbrains.lsp.protocol.SemanticTokensEdit
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+class SemanticTokensDeltaEncoderTest {
+
+    @Test
+    fun unchanged() {
+        val tokens = listOf(
+            //@formatter:off
+            0, 0, 2, 0, 0,
+            0, 2, 1, 2, 0,
+            //@formatter:on
+        )
+        assertEquals(emptyList<SemanticTokensEdit>(), SemanticTokensDeltaEncoder.encode(tokens.toIntArray(), tokens.toIntArray()))
+    }
+
+    @Test
+    fun tokenChangedInTheMiddle() {
+        doTest(
+            previous = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                0, 10, 5, 1, 0,
+                1, 0, 25, 1, 0,
+                //@formatter:on
+            ),
+            current = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                0, 10, 7, 1, 0,
+                1, 0, 25, 1, 0,
+                //@formatter:on
+            ),
+            expectedEdits = listOf(SemanticTokensEdit(start = 5, deleteCount = 5, data = listOf(0, 10, 7, 1, 0))),
+        )
+    }
+
+    @Test
+    fun tokenInserted() {
+        doTest(
+            previous = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                1, 0, 25, 1, 0,
+                //@formatter:on
+            ),
+            current = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                0, 27, 6, 2, 0,
+                1, 0, 25, 1, 0,
+                //@formatter:on
+            ),
+            expectedEdits = listOf(SemanticTokensEdit(start = 5, deleteCount = 0, data = listOf(0, 27, 6, 2, 0))),
+        )
+    }
+
+    @Test
+    fun tokensRemoved() {
+        doTest(
+            previous = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                0, 10, 5, 1, 0,
+                0, 27, 6, 2, 0,
+                //@formatter:on
+            ),
+            current = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                //@formatter:on
+            ),
+            expectedEdits = listOf(SemanticTokensEdit(start = 5, deleteCount = 10, data = emptyList())),
+        )
+    }
+
+    @Test
+    fun editAlignedOnWholeTokens() {
+        doTest(
+            previous = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                0, 10, 5, 1, 0,
+                //@formatter:on
+            ),
+            current = listOf(
+                //@formatter:off
+                0, 0, 10, 0, 0,
+                0, 10, 5, 1, 1,
+                //@formatter:on
+            ),
+            expectedEdits = listOf(SemanticTokensEdit(start = 5, deleteCount = 5, data = listOf(0, 10, 5, 1, 1))),
+        )
+    }
+
+    private fun doTest(previous: List<Int>, current: List<Int>, expectedEdits: List<SemanticTokensEdit>) {
+        val edits = SemanticTokensDeltaEncoder.encode(previous.toIntArray(), current.toIntArray())
+        assertEquals(expectedEdits, edits)
+        assertEquals(current, apply(previous, edits))
+    }
+
+    private fun apply(tokens: List<Int>, edits: List<SemanticTokensEdit>): List<Int> {
+        val result = tokens.toMutableList()
+        for (edit in edits.sortedByDescending { it.start }) {
+            repeat(edit.deleteCount) { result.removeAt(edit.start) }
+            result.addAll(edit.start, edit.data.orEmpty())
+        }
+        return result
+    }
+}
@@ -0,0 +1,60 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.symbols
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class SymbolNameIndexTest {
+    private val index = SymbolNameIndex(
+        listOf(
+            "WorkspaceSymbolProvider",
+            "LSWorkspaceSymbolProviderBase",
+            "DocumentSymbolProvider",
+            "WorkspaceSymbol",
+            "symbolName",
+            "unrelated",
+        )
+    )
+
+    @Test
+    fun camelHumps() {
+        assertEquals(
+            listOf("WorkspaceSymbolProvider", "LSWorkspaceSymbolProviderBase"),
+            index.search("WSP", limit = 10),
+        )
+    }
+
+    @Test
+    fun substringIgnoringCase() {
+        val names = index.search("symbol", limit = 10)
+        assertEquals(
+            setOf("WorkspaceSymbolProvider", "LSWorkspaceSymbolProviderBase", "DocumentSymbolProvider", "WorkspaceSymbol", "symbolName"),
+            names.toSet(),
+        )
+        assertEquals("symbolName", names.first())
+    }
+
+    @Test
+    fun noMatch() {
+        assertTrue(index.search("xyz", limit = 10).isEmpty())
+    }
+
+    @Test
+    fun emptyQuery() {
+        assertEquals(2, index.search("", limit = 2).size)
+    }
+
+    @Test
+    fun limitKeepsBestMatches() {
+        assertEquals(index.search("symbol", limit = 10).take(2), index.search("symbol", limit = 2))
+    }
+
+    @Test
+    fun largeIndex() {
+        val names = (0 until 200_000).map { "Generated${it}Class" } + "TargetSymbolProvider"
+        val index = SymbolNameIndex(names)
+        assertEquals(listOf("TargetSymbolProvider"), index.search("TSP", limit = 10))
+        assertEquals(10, index.search("Gen", limit = 10).size)
+    }
+}
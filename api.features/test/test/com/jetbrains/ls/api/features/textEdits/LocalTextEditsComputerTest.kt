@@ -0,0 +1,84 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.textEdits
+
+import com.jetbrains.ls.api.features.textEdits.LocalTextEditsComputer.ChangedLines
+import com.jetbrains.ls.test.api.utils.injector.TextEditsApplier
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+class LocalTextEditsComputerTest {
+    @Test
+    fun unchanged() {
+        assertNull(LocalTextEditsComputer.findChangedLines("fun foo() {}\n", "fun foo() {}\n"))
+        assertEquals(emptyList<Any>(), LocalTextEditsComputer.computeTextEdits("fun foo() {}\n", "fun foo() {}\n"))
+    }
+
+    @Test
+    fun changedLinesAreWhole() {
+        assertEquals(
+            ChangedLines(startOffset = 13, startLine = 1, oldEndOffset = 27, newEndOffset = 34),
+            LocalTextEditsComputer.findChangedLines(
+                "fun foo() {}\nval x = foo()\nfun bar() {}\n",
+                "fun foo() {}\nval x = foo().let {}\nfun bar() {}\n",
+            ),
+        )
+    }
+
+    @Test
+    fun insertionAtCaret() {
+        doTest(
+            """
+            |package p
+            |
+            |fun foo() {
+            |    listOf(1).fi
+            |}
+            |""".trimMargin(),
+            """
+            |package p
+            |
+            |fun foo() {
+            |    listOf(1).first()
+            |}
+            |""".trimMargin(),
+        )
+    }
+
+    @Test
+    fun importAndInsertion() {
+        doTest(
+            """
+            |package p
+            |
+            |fun foo() {
+            |    Fil
+            |}""".trimMargin(),
+            """
+            |package p
+            |
+            |import java.io.File
+            |
+            |fun foo() {
+            |    File
+            |}""".trimMargin(),
+        )
+    }
+
+    @Test
+    fun changeOnFirstAndLastLine() {
+        doTest("fun foo() {}", "fun bar() {}")
+        doTest("a\nb\nc", "a\nb\nd")
+        doTest("a\nb\nc", "x\nb\nc")
+    }
+
+    private fun doTest(text1: String, text2: String) {
+        doTestSingleWay(text1, text2)
+        doTestSingleWay(text2, text1)
+    }
+
+    private fun doTestSingleWay(oldText: String, newText: String) {
+        val edits = LocalTextEditsComputer.computeTextEdits(oldText, newText)
+        assertEquals(newText, TextEditsApplier.applyTextEdits(oldText, edits), "Text edits: $edits")
+    }
+}
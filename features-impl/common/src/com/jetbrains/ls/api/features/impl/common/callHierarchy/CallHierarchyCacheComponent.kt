@@ -0,0 +1,85 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.callHierarchy
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.api.features.impl.common.callHierarchy.LSCallHierarchyProviderBase.CallHierarchyItemData
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.lsp.protocol.CallHierarchyIncomingCall
+import com.jetbrains.lsp.protocol.CallHierarchyOutgoingCall
+import kotlinx.coroutines.Job
+
+/**
+ * Keeps the calls found for the items of the call hierarchies expanded recently, so that expanding a node again, or
+ * a node whose calls were prefetched along with its siblings, does not search the usages again.
+ *
+ * The calls of any item may change with any file, so any change drops them, and cancels their prefetch in progress.
+ */
+internal object CallHierarchyCacheComponent : WorkspaceComponent<CallHierarchyCache> {
+    override fun init(configData: LSConfigurationData): CallHierarchyCache = CallHierarchyCache()
+
+    override fun handleEvent(event: WorkspaceEvent, state: CallHierarchyCache): CallHierarchyCache =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles, is WorkspaceEvent.WorkspaceModelChanged, WorkspaceEvent.LowMemory -> {
+                state.cancelPrefetch()
+                CallHierarchyCache()
+            }
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: CallHierarchyCache,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: CallHierarchyCache,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+internal class CallHierarchyCache {
+    val incomingCalls: CallsCache<CallHierarchyIncomingCall> = CallsCache()
+    val outgoingCalls: CallsCache<CallHierarchyOutgoingCall> = CallsCache()
+
+    /** The calls of the items shown by the last expanded node, computed in the background. */
+    @Volatile
+    var prefetch: Job? = null
+
+    fun cancelPrefetch() {
+        prefetch?.cancel()
+    }
+}
+
+/**
+ * The calls of at most [ITEMS_LIMIT] items, the least recently expanded ones being dropped first.
+ */
+internal class CallsCache<Call> {
+    private val calls = object : LinkedHashMap<CallHierarchyItemData, List<Call>>(16, 0.75f, /* accessOrder = */ true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<CallHierarchyItemData, List<Call>>): Boolean =
+            size > ITEMS_LIMIT
+    }
+
+    operator fun get(item: CallHierarchyItemData): List<Call>? = synchronized(calls) { calls[item] }
+
+    operator fun set(item: CallHierarchyItemData, itemCalls: List<Call>) {
+        synchronized(calls) {
+            calls[item] = itemCalls
+        }
+    }
+
+    operator fun contains(item: CallHierarchyItemData): Boolean = synchronized(calls) { item in calls }
+
+    companion object {
+        private const val ITEMS_LIMIT = 512
+    }
+}
@@ -20,6 +20,7 @@ import com.jetbrains.ls.api.features.LSConfiguration
 import com.jetbrains.ls.api.features.callHierarchy.LSCallHierarchyProvider
 import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
 import com.jetbrains.ls.api.features.resolve.ResolveDataWithConfigurationEntryId
+import com.jetbrains.ls.api.features.utils.LSBackgroundScopeComponent
 import com.jetbrains.ls.api.features.utils.PsiSerializablePointer
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.CallHierarchyIncomingCall
@@ -29,6 +30,13 @@ import com.jetbrains.lsp.protocol.CallHierarchyOutgoingCall
 import com.jetbrains.lsp.protocol.CallHierarchyOutgoingCallsParams
 import com.jetbrains.lsp.protocol.CallHierarchyPrepareParams
 import com.jetbrains.lsp.protocol.LSP
+import io.opentelemetry.api.trace.Span
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.flatMapMerge
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.launch
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.JsonElement
 
@@ -52,6 +60,62 @@ abstract class LSCallHierarchyProviderBase<Element : PsiElement> : LSCallHierarc
     context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
     override suspend fun incomingCalls(params: CallHierarchyIncomingCallsParams): List<CallHierarchyIncomingCall>? {
         val itemData = CallHierarchyItemData.fromJson(params.item.data) ?: return null
+        val cache = server[CallHierarchyCacheComponent]
+        return expand(itemData, cache, cache.incomingCalls, { it.from }) { computeIncomingCalls(it) }
+    }
+
+    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
+    override suspend fun outgoingCalls(params: CallHierarchyOutgoingCallsParams): List<CallHierarchyOutgoingCall>? {
+        val itemData = CallHierarchyItemData.fromJson(params.item.data) ?: return null
+        val cache = server[CallHierarchyCacheComponent]
+        return expand(itemData, cache, cache.outgoingCalls, { it.to }) { computeOutgoingCalls(it) }
+    }
+
+    /**
+     * The calls of the item of [itemData], from the [cache] unless they were never computed. The calls of the first
+     * [PREFETCHED_ITEMS_LIMIT] items they lead to, which the client is likely to expand next, are then computed in the
+     * background of the server, each in its own read action, unless they are cached already.
+     *
+     * There is a single prefetch at a time: the next request, or a change of the files, cancels the one in progress.
+     */
+    @OptIn(ExperimentalCoroutinesApi::class)
+    context(server: LSServer)
+    private suspend fun <Call> expand(
+        itemData: CallHierarchyItemData,
+        hierarchyCache: CallHierarchyCache,
+        cache: CallsCache<Call>,
+        callItem: (Call) -> CallHierarchyItem,
+        computeCalls: suspend (CallHierarchyItemData) -> List<Call>?,
+    ): List<Call>? {
+        hierarchyCache.cancelPrefetch()
+        val span = Span.current()
+        val cached = cache[itemData]
+        span.setAttribute("cache.hit", cached != null)
+        val calls = cached ?: computeCalls(itemData)?.also { cache[itemData] = it } ?: return null
+        span.setAttribute("calls.count", calls.size.toLong())
+
+        val children = calls.take(PREFETCHED_ITEMS_LIMIT)
+            .mapNotNull { CallHierarchyItemData.fromJson(callItem(it).data) }
+            .filter { it !in cache }
+        if (children.isNotEmpty()) {
+            hierarchyCache.prefetch = server[LSBackgroundScopeComponent].scope.launch {
+                children.asFlow()
+                    .flatMapMerge(concurrency = PREFETCH_PARALLELISM) { child ->
+                        flow {
+                            if (child !in cache) {
+                                computeCalls(child)?.let { cache[child] = it }
+                            }
+                            emit(Unit)
+                        }
+                    }
+                    .collect()
+            }
+        }
+        return calls
+    }
+
+    context(server: LSServer)
+    private suspend fun computeIncomingCalls(itemData: CallHierarchyItemData): List<CallHierarchyIncomingCall>? {
         return server.withAnalysisContext {
             readAction {
                 val member = resolvePsiMember(itemData, project) ?: return@readAction null
@@ -79,9 +143,8 @@ abstract class LSCallHierarchyProviderBase<Element : PsiElement> : LSCallHierarc
         }
     }
 
-    context(server: LSServer, configuration: LSConfiguration, handlerContext: LspHandlerContext)
-    override suspend fun outgoingCalls(params: CallHierarchyOutgoingCallsParams): List<CallHierarchyOutgoingCall>? {
-        val itemData = CallHierarchyItemData.fromJson(params.item.data) ?: return null
+    context(server: LSServer)
+    private suspend fun computeOutgoingCalls(itemData: CallHierarchyItemData): List<CallHierarchyOutgoingCall>? {
         return server.withAnalysisContext {
             readAction {
                 val member = resolvePsiMember(itemData, project) ?: return@readAction null
@@ -120,6 +183,11 @@ abstract class LSCallHierarchyProviderBase<Element : PsiElement> : LSCallHierarc
     protected abstract fun resolvePsiMember(data: CallHierarchyItemData, project: Project): Element?
 
 
+    companion object {
+        private const val PREFETCHED_ITEMS_LIMIT = 16
+        private const val PREFETCH_PARALLELISM = 4
+    }
+
     @Serializable
     data class CallHierarchyItemData(
         val nameData: NameData,
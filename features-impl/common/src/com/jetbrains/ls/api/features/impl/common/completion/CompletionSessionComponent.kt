@@ -0,0 +1,180 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.completion
+
+import com.intellij.codeInsight.completion.PrefixMatcher
+import com.intellij.codeInsight.lookup.LookupElement
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.lsp.protocol.CompletionItemKind
+import com.jetbrains.lsp.protocol.DocumentUri
+import com.jetbrains.lsp.protocol.StringOrMarkupContent
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Keeps the lookup elements of the last completion session, so that [LSCompletionProviderHelper] can answer the
+ * next request extending the same prefix by filtering them again, without running the contributors.
+ *
+ * Typing invalidates the completed file itself, which is what the session is filtered for, so only a change of the
+ * workspace model, which may change the candidates anywhere, drops the session, and cancels the work still running
+ * in the background for it.
+ */
+internal object CompletionSessionComponent : WorkspaceComponent<CompletionSessionHolder> {
+    override fun init(configData: LSConfigurationData): CompletionSessionHolder = CompletionSessionHolder()
+
+    override fun handleEvent(event: WorkspaceEvent, state: CompletionSessionHolder): CompletionSessionHolder =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles -> state
+            is WorkspaceEvent.WorkspaceModelChanged, WorkspaceEvent.LowMemory -> {
+                state.cancelBackgroundWork()
+                CompletionSessionHolder()
+            }
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: CompletionSessionHolder,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: CompletionSessionHolder,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+internal class CompletionSessionHolder {
+    @Volatile
+    var session: CompletionSession? = null
+
+    private val pendingSession = AtomicReference<PendingCompletionSession?>()
+
+    /** The session still computed in the background for a request which could not wait for it. */
+    var pending: PendingCompletionSession?
+        get() = pendingSession.get()
+        set(value) = pendingSession.set(value)
+
+    /** The documentation of the first items of the last list sent, computed in the background. */
+    @Volatile
+    var documentationPrefetch: Job? = null
+
+    /**
+     * Forgets the [pending] session once it is done with, unless another one replaced it meanwhile.
+     */
+    fun clearPending(pending: PendingCompletionSession) {
+        pendingSession.compareAndSet(pending, null)
+    }
+
+    fun cancelBackgroundWork() {
+        pending?.session?.cancel()
+        documentationPrefetch?.cancel()
+    }
+}
+
+/**
+ * The identifier prefix [typedPrefix] starting at [offset] of the document at [uri], which completion was run for.
+ */
+internal class CompletionAnchor(val uri: DocumentUri, val offset: Int, val typedPrefix: String) {
+    /**
+     * What was typed after [typedPrefix], if the identifier before the caret at [caretOffset] of the [document]
+     * only extends it.
+     */
+    fun extension(uri: DocumentUri, document: Document, caretOffset: Int): String? {
+        if (uri != this.uri) return null
+        if (caretOffset < offset + typedPrefix.length || caretOffset > document.textLength) return null
+        if (identifierStart(document, caretOffset) != offset) return null
+        val typed = document.charsSequence.subSequence(offset, caretOffset).toString()
+        if (!typed.startsWith(typedPrefix)) return null
+        return typed.substring(typedPrefix.length)
+    }
+
+    companion object {
+        fun at(uri: DocumentUri, document: Document, caretOffset: Int): CompletionAnchor {
+            val offset = identifierStart(document, caretOffset)
+            return CompletionAnchor(uri, offset, document.charsSequence.subSequence(offset, caretOffset).toString())
+        }
+
+        /**
+         * The offset where the identifier ending at [offset] starts.
+         */
+        private fun identifierStart(document: Document, offset: Int): Int {
+            val text = document.charsSequence
+            var start = offset
+            while (start > 0 && Character.isJavaIdentifierPart(text[start - 1])) {
+                start--
+            }
+            return start
+        }
+    }
+}
+
+/**
+ * The lookup elements found at the [anchor], in the order of the arranger.
+ */
+internal class CompletionSession(
+    val anchor: CompletionAnchor,
+    val items: List<CompletionSessionItem>,
+) {
+    /**
+     * The session for the caret at [caretOffset] of the [document], if the identifier before it only extends the
+     * prefix of the [anchor]: its items still matching the longer prefix, the ones starting with it first.
+     *
+     * A session found for an empty prefix is never reused, since contributors may offer more items, such as
+     * classes not imported yet, once there is a prefix.
+     */
+    fun refiltered(uri: DocumentUri, document: Document, caretOffset: Int): CompletionSession? {
+        if (anchor.typedPrefix.isEmpty()) return null
+        val extension = anchor.extension(uri, document, caretOffset) ?: return null
+        val items = items
+            .map { item -> item.withMatcher(item.itemMatcher.cloneWithPrefix(item.itemMatcher.prefix + extension)) }
+            .filter { item -> item.itemMatcher.prefixMatches(item.lookup) }
+            .sortedByDescending { item -> item.itemMatcher.isStartMatch(item.lookup) }
+        return CompletionSession(CompletionAnchor(uri, anchor.offset, anchor.typedPrefix + extension), items)
+    }
+}
+
+internal class PendingCompletionSession(
+    val anchor: CompletionAnchor,
+    val session: Deferred<CompletionSession?>,
+) {
+    /** The items the contributors collected so far, once they run, in the order they were collected. */
+    @Volatile
+    var collectedItems: (() -> List<CompletionSessionItem>)? = null
+}
+
+internal class CompletionSessionItem(
+    val lookup: LookupElement,
+    val itemMatcher: PrefixMatcher,
+    val rendering: CompletionItemRendering,
+) {
+    fun withMatcher(matcher: PrefixMatcher): CompletionSessionItem = CompletionSessionItem(lookup, matcher, rendering)
+}
+
+/**
+ * What is shown for a lookup element, which is computed under a read action once per session, and only for the items
+ * sent: their kind and presentation, while the documentation is left to the resolve of the item, and prefetched for
+ * the first items.
+ */
+internal class CompletionItemRendering(
+    val kind: Lazy<CompletionItemKind?>,
+    val presentation: Lazy<CompletionItemPresentation>,
+    val documentation: Lazy<StringOrMarkupContent?>,
+)
+
+internal class CompletionItemPresentation(
+    val label: String,
+    val tailText: String?,
+    val typeText: String?,
+)
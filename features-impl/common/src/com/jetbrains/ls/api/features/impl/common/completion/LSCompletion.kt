@@ -5,4 +5,9 @@ import com.intellij.codeInsight.completion.PrefixMatcher
 import com.intellij.codeInsight.lookup.LookupElement
 import com.jetbrains.lsp.protocol.CompletionParams
 
-class LSCompletion(val params: CompletionParams, val lookup: LookupElement, val itemMatcher: PrefixMatcher)
\ No newline at end of file
+class LSCompletion internal constructor(
+    val params: CompletionParams,
+    val lookup: LookupElement,
+    val itemMatcher: PrefixMatcher,
+    internal val rendering: CompletionItemRendering,
+)
@@ -9,8 +9,11 @@ import com.intellij.openapi.application.edtWriteAction
 import com.intellij.openapi.application.invokeAndWaitIfNeeded
 import com.intellij.openapi.application.readAction
 import com.intellij.openapi.application.runWriteAction
+import com.intellij.openapi.editor.Document
 import com.intellij.openapi.vfs.findDocument
 import com.intellij.openapi.vfs.findPsiFile
+import com.intellij.platform.diagnostic.telemetry.TelemetryManager
+import com.intellij.platform.diagnostic.telemetry.helpers.use
 import com.intellij.psi.PsiFile
 import com.jetbrains.analyzer.codeServer.createCompletionProcess
 import com.jetbrains.analyzer.codeServer.insertCompletion
@@ -24,13 +27,15 @@ import com.jetbrains.ls.api.core.util.positionByOffset
 import com.jetbrains.ls.api.core.withAnalysisContextAndFileSettings
 import com.jetbrains.ls.api.features.LspServerBundle
 import com.jetbrains.ls.api.features.commands.LSCommandDescriptor
+import com.jetbrains.ls.api.features.completion.LSCompletion as LSCompletionFeature
 import com.jetbrains.ls.api.features.completion.LSCompletionCandidate
 import com.jetbrains.ls.api.features.completion.LSCompletionItemKindProvider
 import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
 import com.jetbrains.ls.api.features.impl.common.hover.LSHoverProviderBase.LSMarkdownDocProvider.Companion.getMarkdownDoc
 import com.jetbrains.ls.api.features.language.LSLanguage
 import com.jetbrains.ls.api.features.resolve.ResolveDataWithConfigurationEntryId
-import com.jetbrains.ls.api.features.textEdits.TextEditsComputer
+import com.jetbrains.ls.api.features.textEdits.LocalTextEditsComputer
+import com.jetbrains.ls.api.features.utils.LSBackgroundScopeComponent
 import com.jetbrains.ls.api.features.utils.isSource
 import com.jetbrains.ls.snapshot.api.impl.core.CompletionItemId
 import com.jetbrains.ls.snapshot.api.impl.core.CompletionItemWithObject
@@ -57,22 +62,38 @@ import com.jetbrains.lsp.protocol.ShowMessageParams
 import com.jetbrains.lsp.protocol.StringOrMarkupContent
 import com.jetbrains.lsp.protocol.TextEdit
 import com.jetbrains.lsp.protocol.WorkspaceEdit
+import io.opentelemetry.api.trace.Span
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.buildJsonObject
 import kotlinx.serialization.json.encodeToJsonElement
 import kotlinx.serialization.json.jsonObject
 import kotlinx.serialization.json.put
+import java.util.concurrent.TimeUnit
+import kotlin.time.Duration
 
 class LSCompletionProviderHelper(
     private val language: LSLanguage,
     private val uniqueId: LSUniqueConfigurationEntry.UniqueId,
     private val applyCompletionCommandKey: String,
     private val completionDataKey: String,
+    private val completionDeadline: Duration? = null,
+    private val firstBatchSize: Int = DEFAULT_FIRST_BATCH_SIZE,
+    private val maxItems: Int = DEFAULT_MAX_ITEMS,
+    private val prefetchedDocumentationItems: Int = DEFAULT_PREFETCHED_DOCUMENTATION_ITEMS,
 ) {
+    private class FoundCompletionSession(val session: CompletionSession?, val isPartial: Boolean)
 
     interface FileForModificationProvider {
-        context(analysisContext: LSAnalysisContext)
+        context(server: LSServer, analysisContext: LSAnalysisContext)
         fun <T> withFileForModification(physicalPsiFile: PsiFile, action: (fileForModification: PsiFile) -> T): T
     }
 
@@ -122,87 +143,309 @@ class LSCompletionProviderHelper(
             )
         )
 
+    /**
+     * Runs the completion contributors at the caret, unless the client asks again for an incomplete list while the
+     * identifier before the caret only extends the prefix of the last session: then the lookup elements of the
+     * session are filtered again instead. The list is incomplete while there is no prefix, as more items may be
+     * offered once there is one.
+     *
+     * With a [completionDeadline], the contributors run in the background of the server, and a request they do not
+     * finish in time for is answered with an incomplete list of at most [firstBatchSize] items of the last session
+     * still matching, or else of the items collected by the background run so far, or waits for the run when there
+     * are none yet. The client's next request at the same anchor then gets the items of that background run.
+     *
+     * At most [maxItems] items are sent, the list being incomplete when there are more, each with its label and its
+     * tail and type texts: clients only resolve the documentation and the details of an item lazily, not its label.
+     */
     context(server: LSServer)
     suspend fun provideCompletion(params: CompletionParams): CompletionList {
         return if (!params.textDocument.isSource()) {
             CompletionList.EMPTY
         } else {
-            val itemsWithObjects = server.withAnalysisContextAndFileSettings(params.textDocument.uri.uri) {
-                readAction {
-                    params.textDocument.findVirtualFile()?.let { file ->
-                        file.findPsiFile(project)?.let { psiFile ->
-                            file.findDocument()?.offsetByPosition(params.position)?.let { offset ->
-                                psiFile to offset
-                            }
-                        }
+            val sessionHolder = server[CompletionSessionComponent]
+            val found = server.withAnalysisContextAndFileSettings(params.textDocument.uri.uri) {
+                findCaret(params)?.let { (psiFile, document, offset) ->
+                    val refiltered = if (params.context?.triggerKind == CompletionTriggerKind.TriggerForIncompleteCompletions) {
+                        readAction { sessionHolder.session?.refiltered(params.textDocument.uri, document, offset) }
+                    } else {
+                        null
                     }
-                }?.let { (psiFile, offset) ->
-                    val completionProcess = edtWriteAction {
-                        createCompletionProcess(
-                            project = project,
-                            file = psiFile,
-                            offset = offset,
-                            invocationCount = computeInvocationCount(params.context?.triggerKind)
+                    when {
+                        refiltered != null -> FoundCompletionSession(refiltered, isPartial = false)
+                        completionDeadline == null -> FoundCompletionSession(
+                            runCompletion(params, psiFile, document, offset),
+                            isPartial = false,
                         )
+                        else -> runCompletionWithinDeadline(params, document, offset, sessionHolder, completionDeadline)
                     }
-                    readAction {
-                        val lookupElements = performCompletion(completionProcess)
-                        lookupElements.mapIndexed { i, lookup ->
-                            val lookupPresentation = LookupElementPresentation().also {
-                                lookup.renderElement(it)
-                            }
+                }
+            }
+            val session = found?.session
+            if (found?.isPartial != true) {
+                sessionHolder.session = session
+            }
+            val foundItems = session?.items.orEmpty()
+            val items = foundItems.take(maxItems)
+            val itemsWithObjects = tracer.spanBuilder(SPAN_RENDER_ITEMS)
+                .setAttribute("items.found", foundItems.size.toLong())
+                .setAttribute("items.sent", items.size.toLong())
+                .use { span ->
+                    val startNanos = System.nanoTime()
+                    renderItems(params, items)
+                    span.setAttribute("rendering.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                    items.mapIndexed { i, item -> createCompletionItem(params, i, item) }
+                }
+            server.update(LatestCompletionSessionComponent) { state ->
+                state.replace(itemsWithObjects)
+            }
+            sessionHolder.documentationPrefetch?.cancel()
+            sessionHolder.documentationPrefetch = prefetchDocumentation(params, items.take(prefetchedDocumentationItems))
+            CompletionList(
+                isIncomplete = found == null || found.isPartial || found.session == null || found.session.anchor.typedPrefix.isEmpty() ||
+                    foundItems.size > items.size,
+                items = itemsWithObjects.map { it.item },
+            )
+        }
+    }
 
-                            val itemMatcher = completionProcess.arranger.itemMatcher(lookup)
-                            val obj = LSCompletion(params, lookup, itemMatcher)
+    /**
+     * Waits at most [deadline] for the session at the caret, computed in the background by a previous request at
+     * the same anchor or by a new run of the contributors, which replaces any other background run. Past the
+     * [deadline], the first items of the last session, or else of the items the run collected so far, are taken,
+     * and when there are none, the run is waited for, since an empty list would only make the client hide its popup.
+     * A run cancelled meanwhile, by a request at another anchor or by a change of the workspace model, is run again
+     * for this request.
+     */
+    context(server: LSServer, analysisContext: LSAnalysisContext)
+    private suspend fun runCompletionWithinDeadline(
+        params: CompletionParams,
+        document: Document,
+        offset: Int,
+        sessionHolder: CompletionSessionHolder,
+        deadline: Duration,
+    ): FoundCompletionSession {
+        val uri = params.textDocument.uri
+        val anchor = readAction { CompletionAnchor.at(uri, document, offset) }
+        val pending = sessionHolder.pending?.takeIf { pending ->
+            !pending.session.isCancelled && readAction { pending.anchor.extension(uri, document, offset) } != null
+        } ?: run {
+            sessionHolder.pending?.session?.cancel()
+            lateinit var started: PendingCompletionSession
+            val session = server[LSBackgroundScopeComponent].scope.async(start = CoroutineStart.LAZY) {
+                computeSession(params, started)
+            }
+            started = PendingCompletionSession(anchor, session)
+            sessionHolder.pending = started
+            session.start()
+            started
+        }
 
-                            val key = server[LatestCompletionSessionComponent].nextId()
-                            CompletionItemWithObject(
-                                item = CompletionItem(
-                                    label = lookupPresentation.itemText ?: lookup.lookupString,
-                                    sortText = getSortedFieldByIndex(i),
-                                    labelDetails = CompletionItemLabelDetails(
-                                        detail = lookupPresentation.tailText,
-                                        description = lookupPresentation.typeText,
-                                    ),
-                                    kind = LSCompletionItemKindProvider.getKind(CompletionCandidate(lookup, language)),
-                                    textEdit = CompletionItem.Edit.emptyAtPosition(params.position),
-                                    command = Command(
-                                        LspServerBundle.message("command.apply.completion"),
-                                        command = applyCompletionCommandKey,
-                                        arguments = listOf(key.toJson())
-                                    ),
-                                    data = JsonObject(
-                                        mapOf(
-                                            completionDataKey to key.toJson(),
-                                            ResolveDataWithConfigurationEntryId::configurationEntryId.name to LSP.json.encodeToJsonElement(
-                                                uniqueId
-                                            )
-                                        )
-                                    ),
-                                ),
-                                key = key,
-                                obj = obj
-                            )
-                        }
+        val session = try {
+            withTimeoutOrNull(deadline) { pending.session.await() }
+        } catch (e: CancellationException) {
+            return rerunCancelled(params, pending, sessionHolder)
+        }
+        if (session == null) {
+            val firstBatch = readAction {
+                sessionHolder.session?.refiltered(uri, document, offset)
+                    ?: pending.collectedItems?.invoke()
+                        ?.takeIf { it.isNotEmpty() }
+                        ?.let { collected -> CompletionSession(pending.anchor, collected) }
+                        ?.let { collected -> collected.refiltered(uri, document, offset) ?: collected }
+            }
+            if (firstBatch != null && firstBatch.items.isNotEmpty()) {
+                return FoundCompletionSession(
+                    CompletionSession(firstBatch.anchor, firstBatch.items.take(firstBatchSize)),
+                    isPartial = true,
+                )
+            }
+        }
+        val completed = try {
+            session ?: pending.session.await()
+        } catch (e: CancellationException) {
+            return rerunCancelled(params, pending, sessionHolder)
+        }
+        sessionHolder.clearPending(pending)
+        return FoundCompletionSession(
+            completed?.let { readAction { it.refiltered(uri, document, offset) } ?: it },
+            isPartial = false,
+        )
+    }
+
+    /**
+     * Runs the contributors for this request itself once the [pending] run it waited for was cancelled, unless it is
+     * the request which is cancelled.
+     */
+    context(server: LSServer, analysisContext: LSAnalysisContext)
+    private suspend fun rerunCancelled(
+        params: CompletionParams,
+        pending: PendingCompletionSession,
+        sessionHolder: CompletionSessionHolder,
+    ): FoundCompletionSession {
+        currentCoroutineContext().ensureActive()
+        sessionHolder.clearPending(pending)
+        val session = findCaret(params)?.let { (psiFile, document, offset) ->
+            runCompletion(params, psiFile, document, offset)
+        }
+        return FoundCompletionSession(session, isPartial = false)
+    }
+
+    context(server: LSServer)
+    private suspend fun computeSession(params: CompletionParams, pending: PendingCompletionSession): CompletionSession? =
+        server.withAnalysisContextAndFileSettings(params.textDocument.uri.uri) {
+            findCaret(params)?.let { (psiFile, document, offset) ->
+                runCompletion(params, psiFile, document, offset, pending)
+            }
+        }
+
+    context(analysisContext: LSAnalysisContext)
+    private suspend fun findCaret(params: CompletionParams): Triple<PsiFile, Document, Int>? = readAction {
+        params.textDocument.findVirtualFile()?.let { file ->
+            file.findPsiFile(project)?.let { psiFile ->
+                file.findDocument()?.let { document ->
+                    document.offsetByPosition(params.position)?.let { offset ->
+                        Triple(psiFile, document, offset)
                     }
-                } ?: emptyList()
+                }
             }
-            server.update(LatestCompletionSessionComponent) { state ->
-                state.replace(itemsWithObjects)
+        }
+    }
+
+    /**
+     * Runs the contributors at the caret, letting the [pending] session of a background run see the items collected
+     * while they run.
+     */
+    context(server: LSServer, analysisContext: LSAnalysisContext)
+    private suspend fun runCompletion(
+        params: CompletionParams,
+        psiFile: PsiFile,
+        document: Document,
+        offset: Int,
+        pending: PendingCompletionSession? = null,
+    ): CompletionSession {
+        val completionProcess = tracer.spanBuilder(SPAN_CREATE_COMPLETION_PROCESS).use { span ->
+            val requestedNanos = System.nanoTime()
+            edtWriteAction {
+                span.setWriteLockWait(requestedNanos)
+                createCompletionProcess(
+                    project = project,
+                    file = psiFile,
+                    offset = offset,
+                    invocationCount = computeInvocationCount(params.context?.triggerKind)
+                )
+            }
+        }
+        fun sessionItem(lookup: LookupElement) = CompletionSessionItem(
+            lookup = lookup,
+            itemMatcher = completionProcess.arranger.itemMatcher(lookup),
+            rendering = CompletionItemRendering(
+                kind = lazy { LSCompletionItemKindProvider.getKind(CompletionCandidate(lookup, language)) },
+                presentation = lazy { renderPresentation(lookup) },
+                documentation = lazy { computeDocumentation(lookup) },
+            ),
+        )
+        pending?.collectedItems = {
+            // The contributors may still be adding to the arranger.
+            synchronized(completionProcess.arranger) { completionProcess.arranger.matchingItems.toList() }.map(::sessionItem)
+        }
+        return readAction {
+            val lookupElements = performCompletion(completionProcess)
+            val items = lookupElements.map(::sessionItem)
+            CompletionSession(
+                anchor = CompletionAnchor.at(params.textDocument.uri, document, offset),
+                items = items,
+            )
+        }
+    }
+
+    /**
+     * Computes the kind and the presentation of the [items] to send.
+     */
+    context(server: LSServer)
+    private suspend fun renderItems(params: CompletionParams, items: List<CompletionSessionItem>) {
+        if (items.isEmpty()) return
+        server.withAnalysisContextAndFileSettings(params.textDocument.uri.uri) {
+            readAction {
+                for (item in items) {
+                    item.rendering.kind.value
+                    item.rendering.presentation.value
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the documentation of the [items] in the background, so that resolving them, as clients do for the
+     * selected item, does not wait for it. The next completion request cancels it.
+     */
+    context(server: LSServer)
+    private fun prefetchDocumentation(params: CompletionParams, items: List<CompletionSessionItem>): Job? {
+        if (items.isEmpty()) return null
+        return server[LSBackgroundScopeComponent].scope.launch {
+            server.withAnalysisContextAndFileSettings(params.textDocument.uri.uri) {
+                for (item in items) {
+                    readAction { item.rendering.documentation.value }
+                }
             }
-            CompletionList(isIncomplete = true, items = itemsWithObjects.map { it.item })
         }
     }
 
+    private fun renderPresentation(lookup: LookupElement): CompletionItemPresentation {
+        val lookupPresentation = LookupElementPresentation().also {
+            lookup.renderElement(it)
+        }
+        return CompletionItemPresentation(
+            label = lookupPresentation.itemText ?: lookup.lookupString,
+            tailText = lookupPresentation.tailText,
+            typeText = lookupPresentation.typeText,
+        )
+    }
+
+    context(server: LSServer)
+    private fun createCompletionItem(params: CompletionParams, index: Int, item: CompletionSessionItem): CompletionItemWithObject {
+        val obj = LSCompletion(params, item.lookup, item.itemMatcher, item.rendering)
+        val key = server[LatestCompletionSessionComponent].nextId()
+        val presentation = item.rendering.presentation.value
+        return CompletionItemWithObject(
+            item = CompletionItem(
+                label = presentation.label,
+                sortText = getSortedFieldByIndex(index),
+                labelDetails = CompletionItemLabelDetails(
+                    detail = presentation.tailText,
+                    description = presentation.typeText,
+                ),
+                kind = item.rendering.kind.value,
+                textEdit = CompletionItem.Edit.emptyAtPosition(params.position),
+                command = Command(
+                    LspServerBundle.message("command.apply.completion"),
+                    command = applyCompletionCommandKey,
+                    arguments = listOf(key.toJson())
+                ),
+                data = JsonObject(
+                    mapOf(
+                        completionDataKey to key.toJson(),
+                        ResolveDataWithConfigurationEntryId::configurationEntryId.name to LSP.json.encodeToJsonElement(
+                            uniqueId
+                        )
+                    )
+                ),
+            ),
+            key = key,
+            obj = obj
+        )
+    }
+
     context(server: LSServer)
     suspend fun resolveCompletion(completionItem: CompletionItem, fileForModificationProvider: FileForModificationProvider): CompletionItem? {
         val completionDataValue = completionItem.data?.jsonObject?.get(completionDataKey) ?: return completionItem
 
         return (server[LatestCompletionSessionComponent].get(CompletionItemId.fromJson(completionDataValue)) as LSCompletion?)?.let { completionData ->
             server.withAnalysisContextAndFileSettings(completionData.params.textDocument.uri.uri) {
-                val completionItem = completionItem.copy(
-                    documentation = readAction { computeDocumentation(completionData.lookup) },
-                )
+                val completionItem = readAction {
+                    completionItem.copy(
+                        documentation = completionData.rendering.documentation.value,
+                    )
+                }
                 // https://youtrack.jetbrains.com/issue/LSP-319/Fix-completion-in-Air
                 val isAir = server.config.clientName == "JetBrains Air"
                 if (isAir) {
@@ -233,35 +476,45 @@ class LSCompletionProviderHelper(
             ?.let { StringOrMarkupContent(MarkupContent(MarkupKindType.Markdown, it)) }
     }
 
-    context(analysisContext: LSAnalysisContext)
-    private fun applyCompletion(completion: LSCompletion, fileForModificationProvider: FileForModificationProvider): CompletionInsertionResult =
-        invokeAndWaitIfNeeded {
-            runWriteAction {
-                val physicalVirtualFile = requireNotNull(completion.params.textDocument.findVirtualFile()) {
-                    "virtual file not found for ${completion.params.textDocument}"
-                }
-                val physicalPsiFile = requireNotNull(physicalVirtualFile.findPsiFile(project)) {
-                    "psi file not found for $physicalVirtualFile"
-                }
-                val initialText = physicalPsiFile.text
+    /**
+     * Inserts the [completion] into a copy of the file under the write lock, the edits to the physical file being
+     * computed from the text of the copy once the lock is released.
+     */
+    context(server: LSServer, analysisContext: LSAnalysisContext)
+    private fun applyCompletion(completion: LSCompletion, fileForModificationProvider: FileForModificationProvider): CompletionInsertionResult {
+        val insertion = tracer.spanBuilder(SPAN_APPLY_COMPLETION).use { span ->
+            val requestedNanos = System.nanoTime()
+            invokeAndWaitIfNeeded {
+                runWriteAction {
+                    span.setWriteLockWait(requestedNanos)
+                    val physicalVirtualFile = requireNotNull(completion.params.textDocument.findVirtualFile()) {
+                        "virtual file not found for ${completion.params.textDocument}"
+                    }
+                    val physicalPsiFile = requireNotNull(physicalVirtualFile.findPsiFile(project)) {
+                        "psi file not found for $physicalVirtualFile"
+                    }
+                    val initialText = physicalPsiFile.text
 
-                fileForModificationProvider.withFileForModification(
-                    physicalPsiFile,
-                ) { fileForModification ->
-                    val document = fileForModification.fileDocument
-                    val caretBefore = document.offsetByPosition(completion.params.position)
-                    val completionProcess = createCompletionProcess(project, fileForModification, caretBefore)
-                    completionProcess.arranger.registerMatcher(
-                        completion.lookup,
-                        CamelHumpMatcher(completion.itemMatcher.prefix)
-                    )
-                    insertCompletion(project, fileForModification, completion.lookup, completionProcess.parameters!!)
-                    val edits = TextEditsComputer.computeTextEdits(initialText, fileForModification.text)
-                    val caretAfter = completionProcess.caret.offset
-                    CompletionInsertionResult(edits, document.positionByOffset(caretAfter), caretAfter)
+                    fileForModificationProvider.withFileForModification(
+                        physicalPsiFile,
+                    ) { fileForModification ->
+                        val document = fileForModification.fileDocument
+                        val caretBefore = document.offsetByPosition(completion.params.position)
+                        val completionProcess = createCompletionProcess(project, fileForModification, caretBefore)
+                        completionProcess.arranger.registerMatcher(
+                            completion.lookup,
+                            CamelHumpMatcher(completion.itemMatcher.prefix)
+                        )
+                        insertCompletion(project, fileForModification, completion.lookup, completionProcess.parameters!!)
+                        val caretAfter = completionProcess.caret.offset
+                        CompletionInsertion(initialText, fileForModification.text, document.positionByOffset(caretAfter), caretAfter)
+                    }
                 }
             }
         }
+        val edits = LocalTextEditsComputer.computeTextEdits(insertion.initialText, insertion.text)
+        return CompletionInsertionResult(edits, insertion.caretPosition, insertion.caretOffset)
+    }
 
     private fun computeInvocationCount(triggerKind: CompletionTriggerKind?): Int {
         return when (triggerKind) {
@@ -277,5 +530,26 @@ class LSCompletionProviderHelper(
         override val result: Any = lookup.psiElement ?: lookup.`object`
     }
 
+    private class CompletionInsertion(val initialText: String, val text: String, val caretPosition: Position, val caretOffset: Int)
+
     private data class CompletionInsertionResult(val edits: List<TextEdit>, val caretPosition: Position, val caretOffset: Int)
+
+    /**
+     * Records how long the request waited for the write lock since [requestedNanos], the write actions of completion
+     * blocking every reader meanwhile.
+     */
+    private fun Span.setWriteLockWait(requestedNanos: Long) {
+        setAttribute("writeLock.wait.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestedNanos))
+    }
+
+    companion object {
+        const val DEFAULT_FIRST_BATCH_SIZE: Int = 50
+        const val DEFAULT_MAX_ITEMS: Int = 1000
+        const val DEFAULT_PREFETCHED_DOCUMENTATION_ITEMS: Int = 10
+
+        private const val SPAN_RENDER_ITEMS = "completion.renderItems"
+        private const val SPAN_CREATE_COMPLETION_PROCESS = "completion.createCompletionProcess"
+        private const val SPAN_APPLY_COMPLETION = "completion.applyCompletion"
+        private val tracer = TelemetryManager.getTracer(LSCompletionFeature.scope)
+    }
 }
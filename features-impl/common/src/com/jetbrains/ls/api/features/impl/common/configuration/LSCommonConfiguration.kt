@@ -3,22 +3,44 @@ package com.jetbrains.ls.api.features.impl.common.configuration
 
 import com.jetbrains.analyzer.plugins.originalPlugins
 import com.jetbrains.ls.api.features.WorkspaceComponentEntry
+import com.jetbrains.ls.api.features.diagnostics.LSDiagnosticResultIdsComponent
+import com.jetbrains.ls.api.features.diagnostics.LSDocumentDiagnosticRequestsComponent
 import com.jetbrains.ls.api.features.impl.common.api.commonLsApiPlugin
+import com.jetbrains.ls.api.features.impl.common.callHierarchy.CallHierarchyCacheComponent
+import com.jetbrains.ls.api.features.impl.common.completion.CompletionSessionComponent
 import com.jetbrains.ls.api.features.impl.common.decompiler.LSDecompileCommandDescriptorProvider
+import com.jetbrains.ls.api.features.impl.common.diagnostics.InspectionResultsComponent
 import com.jetbrains.ls.api.features.impl.common.fileTemplates.LSInterpolateFileTemplateCommandDescriptorProvider
 import com.jetbrains.ls.api.features.impl.common.highwatermark.LSHighWatermarkCommandDescriptorProvider
+import com.jetbrains.ls.api.features.impl.common.hover.HoverMarkdownCacheComponent
+import com.jetbrains.ls.api.features.impl.common.inlayHints.InlayHintsCacheComponent
+import com.jetbrains.ls.api.features.impl.common.inlayHints.InlayHintsSettingsComponent
 import com.jetbrains.ls.api.features.impl.common.location.LSResolveLocationCommandDescriptorProvider
 import com.jetbrains.ls.api.features.impl.common.modcommands.LSApplyFixCommandDescriptorProvider
 import com.jetbrains.ls.api.features.impl.common.modcommands.LSChooseActionCommandDescriptorProvider
+import com.jetbrains.ls.api.features.impl.common.symbols.WorkspaceSymbolIndexComponent
 import com.jetbrains.ls.api.features.language.LSConfigurationPiece
 import com.jetbrains.ls.api.features.lsApiPlugin
+import com.jetbrains.ls.api.features.semanticTokens.LSSemanticTokensResultsComponent
+import com.jetbrains.ls.api.features.utils.LSBackgroundScopeComponent
 import com.jetbrains.ls.snapshot.api.impl.core.ChooseActionSessionComponent
 import com.jetbrains.ls.snapshot.api.impl.core.LatestCompletionSessionComponent
 
 val LSCommonConfiguration: LSConfigurationPiece = LSConfigurationPiece(
     entries = listOf(
         WorkspaceComponentEntry { LatestCompletionSessionComponent },
+        WorkspaceComponentEntry { CompletionSessionComponent },
         WorkspaceComponentEntry { ChooseActionSessionComponent },
+        WorkspaceComponentEntry { LSDiagnosticResultIdsComponent },
+        WorkspaceComponentEntry { LSDocumentDiagnosticRequestsComponent },
+        WorkspaceComponentEntry { InspectionResultsComponent },
+        WorkspaceComponentEntry { LSSemanticTokensResultsComponent },
+        WorkspaceComponentEntry { WorkspaceSymbolIndexComponent },
+        WorkspaceComponentEntry { CallHierarchyCacheComponent },
+        WorkspaceComponentEntry { InlayHintsSettingsComponent },
+        WorkspaceComponentEntry { InlayHintsCacheComponent },
+        WorkspaceComponentEntry { HoverMarkdownCacheComponent },
+        WorkspaceComponentEntry { LSBackgroundScopeComponent },
         LSDecompileCommandDescriptorProvider,
         LSApplyFixCommandDescriptorProvider,
         LSChooseActionCommandDescriptorProvider,
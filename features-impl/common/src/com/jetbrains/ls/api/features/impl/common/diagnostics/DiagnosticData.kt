@@ -1,6 +1,7 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.impl.common.diagnostics
 
+import com.jetbrains.ls.api.features.utils.PsiSerializablePointer
 import com.jetbrains.ls.kotlinLsp.requests.core.ModCommandData
 import com.jetbrains.lsp.protocol.CodeActionParams
 import com.jetbrains.lsp.protocol.Diagnostic
@@ -34,6 +35,30 @@ data class SimpleDiagnosticQuickfixData(
     val modCommandData: ModCommandData,
 )
 
+/**
+ * A diagnostic data whose quick-fixes are only described, not performed.
+ *
+ * Unlike [SimpleDiagnosticData], computing it does not run any fix: [psi] points to the element the problem of
+ * [inspectionId] was reported on, which is enough to report the problem again and perform the one fix the user
+ * picks, see [LazyDiagnosticQuickfixData].
+ */
+@Serializable
+data class LazyDiagnosticData(
+    override val diagnosticSource: DiagnosticSource,
+    val inspectionId: String,
+    val psi: PsiSerializablePointer,
+    val fixes: List<LazyDiagnosticQuickfixData>,
+) : DiagnosticData
+
+/**
+ * A quick-fix of a [LazyDiagnosticData]: its [name] and its [index] among the fixes of the problem descriptor.
+ */
+@Serializable
+data class LazyDiagnosticQuickfixData(
+    val name: String,
+    val index: Int,
+)
+
 //endregion
 
 //region Helper functions to extract diagnostic data from the request
@@ -0,0 +1,198 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.diagnostics
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.TextRange
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiNamedElement
+import com.intellij.psi.util.PsiTreeUtil
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.api.core.util.toLspRange
+import com.jetbrains.ls.api.core.util.toTextRange
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.ls.snapshot.api.impl.core.rocks.toList
+import com.jetbrains.lsp.protocol.Diagnostic
+import com.jetbrains.lsp.protocol.LSP
+import kotlinx.serialization.json.decodeFromJsonElement
+import kotlinx.serialization.json.encodeToJsonElement
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the local inspection results of the top-level declarations of each file, so that
+ * [LSCommonInspectionDiagnosticProvider] only inspects again the declarations changed since.
+ *
+ * The results of a file may depend on any other file, so a change of a single file keeps only the results of that file,
+ * which are checked declaration by declaration on the next run, and a change of several files drops all results.
+ */
+internal object InspectionResultsComponent : WorkspaceComponent<InspectionResults> {
+    override fun init(configData: LSConfigurationData): InspectionResults = InspectionResults()
+
+    override fun handleEvent(event: WorkspaceEvent, state: InspectionResults): InspectionResults =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles -> {
+                val files = event.files.toList()
+                if (files.size == 1) state.retainFile(files.single().url) else InspectionResults()
+            }
+            is WorkspaceEvent.WorkspaceModelChanged -> InspectionResults()
+            WorkspaceEvent.LowMemory -> InspectionResults()
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: InspectionResults,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: InspectionResults,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+internal class InspectionResults private constructor(
+    private val files: MutableMap<String, List<DeclarationInspectionResults>>,
+) {
+    constructor() : this(ConcurrentHashMap())
+
+    operator fun get(fileUrl: String): List<DeclarationInspectionResults> = files[fileUrl].orEmpty()
+
+    operator fun set(fileUrl: String, declarations: List<DeclarationInspectionResults>) {
+        files[fileUrl] = declarations
+    }
+
+    fun retainFile(fileUrl: String): InspectionResults =
+        InspectionResults(ConcurrentHashMap(files.filterKeys { it == fileUrl }))
+}
+
+/**
+ * The local inspection results of a top-level declaration as of the text it was inspected with.
+ */
+internal class DeclarationInspectionResults private constructor(
+    private val key: DeclarationKey,
+    private val startOffset: Int,
+    /** The name of the declaration, which the declarations depending on it are likely to mention. */
+    val declaredNames: Set<String>,
+    /** Names referenced by the declaration, whose declarations may depend on it, such as for their usages. */
+    val mentionedNames: Set<String>,
+    private val diagnostics: List<InspectedDiagnostic>,
+) {
+    fun matches(declaration: PsiElement): Boolean = key == DeclarationKey(declaration)
+
+    /**
+     * The same results for the [declaration] matching them, which may have moved since: the ranges are recomputed
+     * against the current [document], and the elements the quick-fixes are bound to are shifted along.
+     */
+    fun movedTo(declaration: PsiElement, document: Document): DeclarationInspectionResults {
+        val delta = declaration.textRange.startOffset - startOffset
+        return DeclarationInspectionResults(
+            key = key,
+            startOffset = declaration.textRange.startOffset,
+            declaredNames = declaredNames,
+            mentionedNames = mentionedNames,
+            diagnostics = diagnostics.map { it.shiftedBy(delta, document) },
+        )
+    }
+
+    fun diagnostics(): List<Diagnostic> = diagnostics.map { it.diagnostic }
+
+    companion object {
+        fun create(declaration: PsiElement, document: Document, diagnostics: List<Diagnostic>): DeclarationInspectionResults =
+            DeclarationInspectionResults(
+                key = DeclarationKey(declaration),
+                startOffset = declaration.textRange.startOffset,
+                declaredNames = declaredNames(declaration),
+                mentionedNames = mentionedNames(declaration),
+                diagnostics = diagnostics.map { InspectedDiagnostic(it.range.toTextRange(document), it) },
+            )
+    }
+}
+
+/**
+ * Identifies the text of a declaration; the hash alone would make a rare collision reuse stale results.
+ */
+private data class DeclarationKey(val elementClass: String, val textLength: Int, val textHash: Int) {
+    constructor(declaration: PsiElement) : this(
+        declaration::class.java.name,
+        declaration.textLength,
+        declaration.text.hashCode(),
+    )
+}
+
+private class InspectedDiagnostic(val range: TextRange, val diagnostic: Diagnostic) {
+    fun shiftedBy(delta: Int, document: Document): InspectedDiagnostic {
+        val shiftedRange = range.shiftRight(delta)
+        val data = if (delta == 0) diagnostic.data else diagnostic.data?.let { data ->
+            // Only lazy quick-fixes are bound to offsets: the incremental runs never carry eager ones.
+            val lazyData = runCatching { LSP.json.decodeFromJsonElement<LazyDiagnosticData>(data) }.getOrNull()
+            lazyData?.let { LSP.json.encodeToJsonElement(it.copy(psi = it.psi.shiftedBy(delta))) } ?: data
+        }
+        return InspectedDiagnostic(
+            shiftedRange,
+            diagnostic.copy(range = shiftedRange.toLspRange(document), data = data),
+        )
+    }
+}
+
+/**
+ * The top-level declarations of the [file] whose inspection results can be kept apart: everything else, such as
+ * the package directive and the imports, is inspected on every run, since its problems depend on the whole file.
+ */
+internal fun topLevelDeclarations(file: PsiFile): List<PsiElement> =
+    file.children.filter { it is PsiNamedElement && it.name != null && it.textLength > 0 }
+
+/**
+ * Splits the [declarations] of a file into the ones whose [previous] results can be reused and the ones to inspect
+ * again: those changed since, those mentioning a name declared by a changed declaration, and those declaring a name
+ * mentioned by a changed declaration, before or after the change, as their problems may depend on it, such as a
+ * private function becoming used or unused.
+ */
+internal fun reusableInspectionResults(
+    declarations: List<PsiElement>,
+    previous: List<DeclarationInspectionResults>,
+    document: Document,
+): Map<PsiElement, DeclarationInspectionResults> {
+    val unmatched = previous.toMutableList()
+    val matched = LinkedHashMap<PsiElement, DeclarationInspectionResults>()
+    val changed = mutableListOf<PsiElement>()
+    for (declaration in declarations) {
+        val index = unmatched.indexOfFirst { it.matches(declaration) }
+        if (index >= 0) {
+            matched[declaration] = unmatched.removeAt(index)
+        } else {
+            changed.add(declaration)
+        }
+    }
+    val changedNames = HashSet<String>()
+    unmatched.flatMapTo(changedNames) { it.declaredNames }
+    changed.flatMapTo(changedNames) { declaredNames(it) }
+    val namesMentionedByChanged = HashSet<String>()
+    unmatched.flatMapTo(namesMentionedByChanged) { it.mentionedNames }
+    changed.flatMapTo(namesMentionedByChanged) { mentionedNames(it) }
+    return matched
+        .filter { (_, results) ->
+            results.mentionedNames.none { it in changedNames } && results.declaredNames.none { it in namesMentionedByChanged }
+        }
+        .mapValues { (declaration, results) -> results.movedTo(declaration, document) }
+}
+
+private fun mentionedNames(declaration: PsiElement): Set<String> {
+    val names = HashSet<String>()
+    PsiTreeUtil.processElements(declaration) { element ->
+        element.references.mapTo(names) { it.canonicalText.substringAfterLast('.') }
+        true
+    }
+    return names
+}
+
+private fun declaredNames(declaration: PsiElement): Set<String> = setOfNotNull((declaration as PsiNamedElement).name)
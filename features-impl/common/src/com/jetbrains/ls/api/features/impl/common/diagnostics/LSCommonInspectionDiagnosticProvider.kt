@@ -32,6 +32,7 @@ import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.project
 import com.jetbrains.ls.api.core.util.findVirtualFile
 import com.jetbrains.ls.api.core.util.toLspRange
+import com.jetbrains.ls.api.core.util.toTextRange
 import com.jetbrains.ls.api.core.withAnalysisContextAndFileSettings
 import com.jetbrains.ls.api.features.diagnostics.LSDiagnostic
 import com.jetbrains.ls.api.features.diagnostics.LSDiagnosticProvider
@@ -49,6 +50,7 @@ import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
+import kotlinx.serialization.json.JsonElement
 import kotlinx.serialization.json.encodeToJsonElement
 
 private val LOG = logger<LSCommonInspectionDiagnosticProvider>()
@@ -59,18 +61,37 @@ private enum class InspectionKind(val attributeValue: String, val spanName: Stri
 }
 
 // TODO: LSP-278 Optimize performance of inspections
+/**
+ * Reports the problems found by the enabled inspections.
+ *
+ * With [lazyQuickFixes], the quick-fixes of a problem are only described by a [LazyDiagnosticData] and performed
+ * on `codeAction/resolve` by [LSCommonInspectionFixesCodeActionProvider], which then has to be configured with the
+ * same blacklists. Otherwise, every fix is performed up front and its result is sent within [SimpleDiagnosticData].
+ *
+ * With [incrementalLocalInspections], the local inspection results of each top-level declaration are kept in
+ * [InspectionResultsComponent], and only the declarations changed since the previous run, or possibly depending on a
+ * changed one, are inspected again. Inspections which [run for the whole file][LocalInspectionTool.runForWholeFile]
+ * are always run over the whole file. The results kept are bound to offsets, so this requires [lazyQuickFixes].
+ */
 class LSCommonInspectionDiagnosticProvider(
     override val supportedLanguages: Set<LSLanguage>,
     inspectionBlacklist: Blacklist = Blacklist(),
     quickFixBlacklist: Blacklist = Blacklist(),
+    private val lazyQuickFixes: Boolean = false,
+    private val incrementalLocalInspections: Boolean = false,
 ) : LSDiagnosticProvider {
     private val lsInspectionManager = LSInspectionManager(inspectionBlacklist, quickFixBlacklist)
-    
+
+    init {
+        require(lazyQuickFixes || !incrementalLocalInspections) { "Incremental local inspections require lazy quick-fixes" }
+    }
+
     companion object {
         val diagnosticSource: DiagnosticSource = DiagnosticSource("inspection")
 
         private const val SPAN_LOCAL_INSPECTIONS = "diagnostics.runLocalInspections"
         private const val SPAN_GLOBAL_INSPECTIONS = "diagnostics.runGlobalInspections"
+        private const val SPAN_INCREMENTAL_LOCAL_INSPECTIONS = "diagnostics.runIncrementalLocalInspections"
 
         private val tracer = TelemetryManager.getTracer(LSDiagnostic.scope)
     }
@@ -79,6 +100,7 @@ class LSCommonInspectionDiagnosticProvider(
     override fun getDiagnostics(params: DocumentDiagnosticParams): Flow<Diagnostic> = flow {
         if (!params.textDocument.isSource()) return@flow
         val onTheFly = false
+        val inspectionResults = server[InspectionResultsComponent]
         val diagnostics = server.withAnalysisContextAndFileSettings(params.textDocument.uri.uri) {
             class DiagnosticsRequestData(
                 val virtualFile: VirtualFile,
@@ -86,26 +108,31 @@ class LSCommonInspectionDiagnosticProvider(
                 val elements: List<PsiElement>,
                 val localInspections: List<LocalInspectionTool>,
                 val globalInspections: List<GlobalSimpleInspectionTool>,
+                val incrementalRun: IncrementalRun?,
             )
             val requestData = readAction {
                 val virtualFile = params.textDocument.findVirtualFile() ?: return@readAction null
                 val psiFile = virtualFile.findPsiFile(project) ?: return@readAction null
                 if (!ProblemHighlightFilter.shouldHighlightFile(psiFile)) return@readAction null
-                val elements = arrayListOf<PsiElement>()
-                psiFile.accept(object : PsiRecursiveElementWalkingVisitor() {
-                    override fun visitElement(element: PsiElement) {
-                        super.visitElement(element)
-                        elements.add(element)
-                    }
-                })
+                // A single session is shared by all inspections, mirroring InspectionEngine.withSession.
+                val localInspections = lsInspectionManager.getLocalInspections(psiFile) +
+                        lsInspectionManager.getSharedLocalInspectionsFromGlobalTools(psiFile)
+                val incrementalRun = if (incrementalLocalInspections) {
+                    IncrementalRun.create(psiFile, localInspections, inspectionResults[virtualFile.url])
+                } else {
+                    null
+                }
                 DiagnosticsRequestData(
                     virtualFile = virtualFile,
                     psiFile = psiFile,
-                    elements = elements,
-                    // A single session is shared by all inspections, mirroring InspectionEngine.withSession.
-                    localInspections = lsInspectionManager.getLocalInspections(psiFile) +
-                            lsInspectionManager.getSharedLocalInspectionsFromGlobalTools(psiFile.language),
-                    globalInspections = lsInspectionManager.getSimpleGlobalInspections(psiFile.language),
+                    elements = if (incrementalRun == null || incrementalRun.wholeFileInspections.isNotEmpty()) {
+                        psiFile.collectElements(skipped = emptySet())
+                    } else {
+                        emptyList()
+                    },
+                    localInspections = localInspections,
+                    globalInspections = lsInspectionManager.getSimpleGlobalInspections(psiFile),
+                    incrementalRun = incrementalRun,
                 )
             } ?: return@withAnalysisContextAndFileSettings emptyList()
 
@@ -114,15 +141,29 @@ class LSCommonInspectionDiagnosticProvider(
 
             val inspectionManager = InspectionManagerEx(project)
 
-            val localDiagnostics = runLocalInspections(
-                inspectionManager,
-                requestData.psiFile,
-                requestData.localInspections,
-                requestData.elements,
-                onTheFly
-            )
+            val localDiagnostics = if (requestData.incrementalRun == null) {
+                runLocalInspections(
+                    inspectionManager,
+                    requestData.virtualFile,
+                    requestData.psiFile,
+                    requestData.localInspections,
+                    requestData.elements,
+                    onTheFly
+                )
+            } else {
+                runLocalInspectionsIncrementally(
+                    inspectionManager,
+                    requestData.virtualFile,
+                    requestData.psiFile,
+                    requestData.incrementalRun,
+                    requestData.elements,
+                    inspectionResults,
+                    onTheFly
+                )
+            }
             val globalDiagnostics = runGlobalInspections(
                 inspectionManager,
+                requestData.virtualFile,
                 requestData.psiFile,
                 requestData.globalInspections,
                 onTheFly
@@ -142,6 +183,7 @@ class LSCommonInspectionDiagnosticProvider(
     context(server: LSServer, analysisContext: LSAnalysisContext)
     private suspend fun runLocalInspections(
         inspectionManager: InspectionManagerEx,
+        virtualFile: VirtualFile,
         psiFile: PsiFile,
         inspections: List<LocalInspectionTool>,
         elements: List<PsiElement>,
@@ -166,7 +208,7 @@ class LSCommonInspectionDiagnosticProvider(
                             }.getOrHandleException {
                                 LOG.warn(it)
                             }
-                            problemsHolder.collectDiagnostics(project, document, localInspection)
+                            problemsHolder.collectDiagnostics(project, virtualFile, document, localInspection)
                         }
                     }
                 }
@@ -174,6 +216,51 @@ class LSCommonInspectionDiagnosticProvider(
         }.awaitAll().flatten()
     }
 
+    /**
+     * Runs the local inspections over the declarations of [run] which could not reuse their previous results and
+     * over the rest of the file outside any declaration, then keeps the results of every declaration for the next
+     * run, unless the file has changed meanwhile. The inspections running for the whole file run over [elements].
+     */
+    context(server: LSServer, analysisContext: LSAnalysisContext)
+    private suspend fun runLocalInspectionsIncrementally(
+        inspectionManager: InspectionManagerEx,
+        virtualFile: VirtualFile,
+        psiFile: PsiFile,
+        run: IncrementalRun,
+        elements: List<PsiElement>,
+        inspectionResults: InspectionResults,
+        onTheFly: Boolean,
+    ): List<Diagnostic> = tracer.spanBuilder(SPAN_INCREMENTAL_LOCAL_INSPECTIONS)
+        .setAttribute("declarations.count", run.declarations.size.toLong())
+        .setAttribute("declarations.reused", run.reused.size.toLong())
+        .useWithScope {
+            val wholeFileDiagnostics = runLocalInspections(
+                inspectionManager, virtualFile, psiFile, run.wholeFileInspections, elements, onTheFly
+            )
+            val inspectedDiagnostics = runLocalInspections(
+                inspectionManager, virtualFile, psiFile, run.declarationInspections, run.elements, onTheFly
+            )
+            readAction {
+                val document = psiFile.fileDocument
+                val reusedRanges = run.reused.keys.map { it.textRange }
+                // A problem reported by a visitor of another element within a reused declaration is already there.
+                val changedDiagnostics = inspectedDiagnostics.filter { diagnostic ->
+                    val startOffset = diagnostic.range.toTextRange(document).startOffset
+                    reusedRanges.none { it.containsOffset(startOffset) }
+                }
+                if (psiFile.isValid && document.modificationStamp == run.documentModificationStamp) {
+                    inspectionResults[virtualFile.url] = run.declarations.map { declaration ->
+                        run.reused[declaration] ?: DeclarationInspectionResults.create(
+                            declaration,
+                            document,
+                            changedDiagnostics.filter { declaration.textRange.containsRange(it.range.toTextRange(document)) },
+                        )
+                    }
+                }
+                wholeFileDiagnostics + changedDiagnostics + run.reused.values.flatMap { it.diagnostics() }
+            }
+        }
+
     /**
      * Runs the simple global inspections sequentially.
      *
@@ -184,6 +271,7 @@ class LSCommonInspectionDiagnosticProvider(
     context(server: LSServer, analysisContext: LSAnalysisContext)
     private suspend fun runGlobalInspections(
         inspectionManager: InspectionManagerEx,
+        virtualFile: VirtualFile,
         psiFile: PsiFile,
         inspections: List<GlobalSimpleInspectionTool>,
         onTheFly: Boolean,
@@ -207,7 +295,7 @@ class LSCommonInspectionDiagnosticProvider(
                         LOG.warn(it)
                     }
                     val diagnostics = problemsHolder.results.mapNotNull { problemDescriptor ->
-                        val data = lsInspectionManager.createDiagnosticData(problemDescriptor, project)
+                        val data = createDiagnosticData(problemDescriptor, simpleGlobalInspection.shortName, project, virtualFile)
                         val range = problemDescriptor.range()?.toLspRange(document) ?: return@mapNotNull null
                         val message = ProblemDescriptorUtil.renderDescriptor(
                             problemDescriptor, problemDescriptor.psiElement, ProblemDescriptorUtil.NONE
@@ -218,7 +306,7 @@ class LSCommonInspectionDiagnosticProvider(
                             message = message.description,
                             code = StringOrInt.string(simpleGlobalInspection.shortName),
                             tags = problemDescriptor.highlightType.toLspTags(),
-                            data = LSP.json.encodeToJsonElement<SimpleDiagnosticData>(data),
+                            data = data,
                         )
                     }
                     diagnostics
@@ -241,6 +329,7 @@ class LSCommonInspectionDiagnosticProvider(
     context(server: LSServer)
     private fun ProblemsHolder.collectDiagnostics(
         project: Project,
+        virtualFile: VirtualFile,
         document: Document,
         localInspectionTool: LocalInspectionTool,
     ): List<Diagnostic> {
@@ -248,7 +337,7 @@ class LSCommonInspectionDiagnosticProvider(
             .filter { problemDescriptor -> problemDescriptor.highlightType != ProblemHighlightType.INFORMATION }
             .filter { !isSuppressed(localInspectionTool, it) }
             .mapNotNull { problemDescriptor ->
-                val data = lsInspectionManager.createDiagnosticData(problemDescriptor, project)
+                val data = createDiagnosticData(problemDescriptor, localInspectionTool.id, project, virtualFile)
                 val message = ProblemDescriptorUtil.renderDescriptor(
                     problemDescriptor, problemDescriptor.psiElement, ProblemDescriptorUtil.NONE
                 )
@@ -258,10 +347,76 @@ class LSCommonInspectionDiagnosticProvider(
                     message = message.description,
                     code = StringOrInt.string(localInspectionTool.id),
                     tags = problemDescriptor.highlightType.toLspTags(),
-                    data = LSP.json.encodeToJsonElement(data),
+                    data = data,
                 )
             }
     }
+
+    context(server: LSServer)
+    private fun createDiagnosticData(
+        problemDescriptor: ProblemDescriptor,
+        inspectionId: String,
+        project: Project,
+        virtualFile: VirtualFile,
+    ): JsonElement {
+        if (lazyQuickFixes) {
+            val data = lsInspectionManager.createLazyDiagnosticData(problemDescriptor, inspectionId, virtualFile)
+            // A problem not bound to an element cannot be found again, so there is nothing to fix lazily.
+            return data?.let { LSP.json.encodeToJsonElement(it) }
+                ?: LSP.json.encodeToJsonElement(SimpleDiagnosticData(diagnosticSource, fixes = emptyList()))
+        }
+        return LSP.json.encodeToJsonElement(lsInspectionManager.createDiagnosticData(problemDescriptor, project))
+    }
+}
+
+/**
+ * The plan of an incremental local inspection run over [declarations], see [reusableInspectionResults].
+ */
+private class IncrementalRun(
+    val documentModificationStamp: Long,
+    val declarations: List<PsiElement>,
+    val reused: Map<PsiElement, DeclarationInspectionResults>,
+    /** The elements outside the [reused] declarations. */
+    val elements: List<PsiElement>,
+    val wholeFileInspections: List<LocalInspectionTool>,
+    val declarationInspections: List<LocalInspectionTool>,
+) {
+    companion object {
+        fun create(
+            psiFile: PsiFile,
+            inspections: List<LocalInspectionTool>,
+            previous: List<DeclarationInspectionResults>,
+        ): IncrementalRun {
+            val document = psiFile.fileDocument
+            val declarations = topLevelDeclarations(psiFile)
+            val reused = reusableInspectionResults(declarations, previous, document)
+            val (wholeFileInspections, declarationInspections) = inspections.partition { it.runForWholeFile() }
+            return IncrementalRun(
+                documentModificationStamp = document.modificationStamp,
+                declarations = declarations,
+                reused = reused,
+                elements = psiFile.collectElements(skipped = reused.keys),
+                wholeFileInspections = wholeFileInspections,
+                declarationInspections = declarationInspections,
+            )
+        }
+    }
+}
+
+/**
+ * The elements of the file in the order of [PsiRecursiveElementWalkingVisitor], children first, except for the
+ * [skipped] elements and everything within them.
+ */
+private fun PsiFile.collectElements(skipped: Set<PsiElement>): List<PsiElement> {
+    val elements = arrayListOf<PsiElement>()
+    accept(object : PsiRecursiveElementWalkingVisitor() {
+        override fun visitElement(element: PsiElement) {
+            if (element in skipped) return
+            super.visitElement(element)
+            elements.add(element)
+        }
+    })
+    return elements
 }
 
 private fun ProblemDescriptor.range(): TextRange? {
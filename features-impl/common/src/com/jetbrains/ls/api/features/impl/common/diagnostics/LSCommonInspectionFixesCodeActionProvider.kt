@@ -1,20 +1,60 @@
 // Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.impl.common.diagnostics
 
+import com.intellij.openapi.application.readAction
+import com.intellij.openapi.vfs.findPsiFile
 import com.jetbrains.ls.api.core.LSServer
-import com.jetbrains.ls.api.features.codeActions.LSCodeActionProvider
+import com.jetbrains.ls.api.core.project
+import com.jetbrains.ls.api.core.util.findVirtualFile
+import com.jetbrains.ls.api.core.withAnalysisContextAndFileSettings
+import com.jetbrains.ls.api.features.LspServerBundle
+import com.jetbrains.ls.api.features.codeActions.LSResolvableCodeActionProvider
+import com.jetbrains.ls.api.features.commands.LSCommandDescriptor
+import com.jetbrains.ls.api.features.commands.LSCommandDescriptorProvider
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
+import com.jetbrains.ls.api.features.impl.common.modcommands.ModCommandFix
 import com.jetbrains.ls.api.features.impl.common.modcommands.applyFixCodeAction
 import com.jetbrains.ls.api.features.language.LSLanguage
+import com.jetbrains.ls.api.features.resolve.ResolveDataWithConfigurationEntryId
+import com.jetbrains.ls.kotlinLsp.requests.core.executeCommand
 import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.implementation.lspClient
 import com.jetbrains.lsp.protocol.CodeAction
 import com.jetbrains.lsp.protocol.CodeActionKind
 import com.jetbrains.lsp.protocol.CodeActionParams
+import com.jetbrains.lsp.protocol.Command
+import com.jetbrains.lsp.protocol.Diagnostic
+import com.jetbrains.lsp.protocol.LSP
+import com.jetbrains.lsp.protocol.MessageActionItem
+import com.jetbrains.lsp.protocol.MessageType
+import com.jetbrains.lsp.protocol.ShowMessageNotificationType
+import com.jetbrains.lsp.protocol.ShowMessageParams
+import com.jetbrains.lsp.protocol.ShowMessageRequestParams
+import com.jetbrains.lsp.protocol.TextDocumentIdentifier
+import com.jetbrains.lsp.protocol.Window
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.decodeFromJsonElement
+import kotlinx.serialization.json.encodeToJsonElement
 
+/**
+ * Offers the quick-fixes of the problems reported by [LSCommonInspectionDiagnosticProvider].
+ *
+ * Fixes described by a [LazyDiagnosticData] are offered unresolved: the fix is performed on `codeAction/resolve`,
+ * or by the command of the code action for clients which do not resolve code actions. The blacklists have to be
+ * the ones of the [LSCommonInspectionDiagnosticProvider], so the same inspections and fixes are found again.
+ */
 class LSCommonInspectionFixesCodeActionProvider(
     override val supportedLanguages: Set<LSLanguage>,
-) : LSCodeActionProvider {
+    inspectionBlacklist: Blacklist = Blacklist(),
+    quickFixBlacklist: Blacklist = Blacklist(),
+) : LSResolvableCodeActionProvider, LSCommandDescriptorProvider {
+    private val lsInspectionManager = LSInspectionManager(inspectionBlacklist, quickFixBlacklist)
+
+    override val uniqueId: LSUniqueConfigurationEntry.UniqueId =
+        LSUniqueConfigurationEntry.UniqueId("inspectionFixes." + supportedLanguages.joinToString(".") { it.lspName })
 
     override val providesOnlyKinds: Set<CodeActionKind> = setOf(CodeActionKind.QuickFix)
 
@@ -28,5 +68,104 @@ class LSCommonInspectionFixesCodeActionProvider(
                 }
             }
             .forEach { codeAction -> emit(codeAction) }
+
+        params.diagnosticData<LazyDiagnosticData>()
+            .filter { it.data.diagnosticSource == LSCommonInspectionDiagnosticProvider.diagnosticSource }
+            .flatMap { data ->
+                data.data.fixes.map { quickFix ->
+                    lazyFixCodeAction(LazyFixData(params.textDocument, data.data, quickFix, uniqueId), data.diagnostic)
+                }
+            }
+            .forEach { codeAction -> emit(codeAction) }
+    }
+
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    override suspend fun resolveCodeAction(codeAction: CodeAction): CodeAction? {
+        val data = codeAction.data?.let { data ->
+            runCatching { LSP.json.decodeFromJsonElement<LazyFixData>(data) }.getOrNull()
+        } ?: return null
+        // Several fixes mean a choice flattened for a generic client, which only the command can offer.
+        val fix = performLazyFix(data).singleOrNull() ?: return codeAction
+        return codeAction.copy(
+            command = applyFixCodeAction(fix.name, CodeActionKind.QuickFix, fix.data).command,
+        )
     }
+
+    override val commandDescriptors: List<LSCommandDescriptor> get() = listOf(commandDescriptor)
+
+    private val commandDescriptor: LSCommandDescriptor = LSCommandDescriptor(
+        title = LspServerBundle.message("command.apply.inspection.fix"),
+        name = "applyInspectionFix.${uniqueId.value}",
+        executor = { arguments ->
+            require(arguments.size == 1) { "Expected 1 argument, got: ${arguments.size}" }
+            val server = contextOf<LSServer>()
+            val data = LSP.json.decodeFromJsonElement<LazyFixData>(arguments[0])
+            val fixes = performLazyFix(data)
+            if (fixes.isEmpty()) {
+                lspClient.notify(
+                    notificationType = ShowMessageNotificationType,
+                    params = ShowMessageParams(MessageType.Error, LspServerBundle.message("error.action.not.available")),
+                )
+            } else {
+                val fix = fixes.singleOrNull() ?: chooseFix(data.fix.name, fixes)
+                if (fix != null) {
+                    server.withAnalysisContext {
+                        executeCommand(fix.data, lspClient)
+                    }
+                }
+            }
+            JsonPrimitive(true)
+        },
+    )
+
+    /**
+     * Lets the user pick one of [fixes], the choices of a fix flattened for a client without `intellijExtensions`.
+     * Unlike up-front flattening, there is a single code action to offer them, so the choice is made afterward.
+     */
+    context(handlerContext: LspHandlerContext)
+    private suspend fun chooseFix(title: String, fixes: List<ModCommandFix>): ModCommandFix? {
+        val chosen = lspClient.request(
+            requestType = Window.ShowMessageRequest,
+            params = ShowMessageRequestParams(
+                type = MessageType.Info,
+                message = title,
+                actions = fixes.map { MessageActionItem(it.name) },
+            ),
+        ) ?: return null
+        return fixes.firstOrNull { it.name == chosen.title }
+    }
+
+    private fun lazyFixCodeAction(data: LazyFixData, diagnostic: Diagnostic): CodeAction {
+        val arguments = LSP.json.encodeToJsonElement(data)
+        return CodeAction(
+            title = data.fix.name,
+            kind = CodeActionKind.QuickFix,
+            diagnostics = listOf(diagnostic),
+            command = Command(
+                title = commandDescriptor.title,
+                command = commandDescriptor.name,
+                arguments = listOf(arguments),
+            ),
+            data = arguments,
+        )
+    }
+
+    context(server: LSServer)
+    private suspend fun performLazyFix(data: LazyFixData): List<ModCommandFix> {
+        return server.withAnalysisContextAndFileSettings(data.textDocument.uri.uri) {
+            readAction {
+                val virtualFile = data.textDocument.findVirtualFile() ?: return@readAction emptyList()
+                val psiFile = virtualFile.findPsiFile(project) ?: return@readAction emptyList()
+                lsInspectionManager.performLazyFix(psiFile, data.diagnosticData, data.fix)
+            }
+        }
+    }
+
+    @Serializable
+    private data class LazyFixData(
+        val textDocument: TextDocumentIdentifier,
+        val diagnosticData: LazyDiagnosticData,
+        val fix: LazyDiagnosticQuickfixData,
+        override val configurationEntryId: LSUniqueConfigurationEntry.UniqueId,
+    ) : ResolveDataWithConfigurationEntryId
 }
@@ -82,9 +82,9 @@ class LSCommonIntentionFixesCodeActionProvider(
         val inspectionManager = InspectionManagerEx(project)
         val problemsHolder = ProblemsHolder(inspectionManager, psiFile, true)
         val infoInspections = lsInspectionManager.getLocalInspections(psiFile, true) +
-                lsInspectionManager.getSharedLocalInspectionsFromGlobalTools(psiFile.language, true)
+                lsInspectionManager.getSharedLocalInspectionsFromGlobalTools(psiFile, true)
         val normalInspections = lsInspectionManager.getLocalInspections(psiFile, false) +
-                lsInspectionManager.getSharedLocalInspectionsFromGlobalTools(psiFile.language, false)
+                lsInspectionManager.getSharedLocalInspectionsFromGlobalTools(psiFile, false)
         val fileRange = psiFile.textRange
         val session = LocalInspectionToolSession(psiFile, fileRange, fileRange, null)
         val result = mutableListOf<CodeAction>()
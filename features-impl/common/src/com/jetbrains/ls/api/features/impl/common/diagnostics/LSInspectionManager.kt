@@ -2,6 +2,7 @@
 package com.jetbrains.ls.api.features.impl.common.diagnostics
 
 import com.intellij.codeHighlighting.HighlightDisplayLevel
+import com.intellij.codeInsight.daemon.impl.InspectionVisitorOptimizer
 import com.intellij.codeInsight.intention.IntentionAction
 import com.intellij.codeInspection.GlobalInspectionTool
 import com.intellij.codeInspection.GlobalSimpleInspectionTool
@@ -10,8 +11,12 @@ import com.intellij.codeInspection.InspectionProfileEntry
 import com.intellij.codeInspection.LocalInspectionEP
 import com.intellij.codeInspection.LocalInspectionTool
 import com.intellij.codeInspection.LocalQuickFix
+import com.intellij.codeInspection.LocalInspectionToolSession
+import com.intellij.codeInspection.ProblemDescriptionsProcessor
 import com.intellij.codeInspection.ProblemDescriptor
+import com.intellij.codeInspection.ProblemsHolder
 import com.intellij.codeInspection.QuickFix
+import com.intellij.codeInspection.ex.InspectionManagerEx
 import com.intellij.lang.Language
 import com.intellij.lang.LanguageMatcher
 import com.intellij.lang.MetaLanguage
@@ -23,13 +28,30 @@ import com.intellij.openapi.diagnostic.ReportingClassSubstitutor
 import com.intellij.openapi.diagnostic.getOrHandleException
 import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.platform.diagnostic.telemetry.TelemetryManager
+import com.intellij.platform.diagnostic.telemetry.helpers.use
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiElementVisitor
 import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiRecursiveElementWalkingVisitor
+import com.intellij.psi.util.parentsWithSelf
+import com.intellij.util.containers.CollectionFactory
 import com.jetbrains.ls.api.core.LSServer
+import com.jetbrains.ls.api.features.diagnostics.LSDiagnostic
 import com.jetbrains.ls.api.features.impl.common.diagnostics.LSCommonInspectionDiagnosticProvider.Companion.diagnosticSource
+import com.jetbrains.ls.api.features.impl.common.modcommands.ModCommandFix
 import com.jetbrains.ls.api.features.impl.common.modcommands.toModCommandFixes
+import com.jetbrains.ls.api.features.utils.PsiSerializablePointer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 
 private val LOG = logger<LSInspectionManager>()
 
+private const val SPAN_INSPECTION_TOOLS = "diagnostics.inspectionTools"
+
+private val tracer = TelemetryManager.getTracer(LSDiagnostic.scope)
+
 /**
  * The limit on flattened choices of an inspection fix, stricter than [DEFAULT_MAX_FLATTENED_FIXES][com.jetbrains.ls.api.features.impl.common.modcommands.DEFAULT_MAX_FLATTENED_FIXES].
  *
@@ -43,27 +65,67 @@ private const val MAX_FLATTENED_INSPECTION_FIXES = 5
 internal class LSInspectionManager(
     private val inspectionBlacklist: Blacklist = Blacklist(),
     private val quickFixBlacklist: Blacklist = Blacklist()) {
-    
+
+    @Volatile
+    private var toolsCache: InspectionToolsCache? = null
+
     internal fun getLocalInspections(psiFile: PsiFile, infoInspections: Boolean = false): List<LocalInspectionTool> {
-        return getEnabledInspectionTools(LocalInspectionEP.LOCAL_INSPECTION.extensionList, psiFile.language, infoInspections)
-            .filterIsInstance<LocalInspectionTool>()
-            .filter { localInspectionTool -> localInspectionTool.isAvailableForFile(psiFile) }
-            .filterNot { localInspectionTool -> (localInspectionTool.nameProvider as? LocalInspectionEP)?.editorAttributes == "REASSIGNED_LOCAL_VARIABLE_ATTRIBUTES" }
-            .toList()
+        // Only the availability depends on the file itself, so it is checked on every call.
+        return cachedTools(psiFile.project, InspectionToolsKey(InspectionToolsKind.LOCAL, psiFile.language, infoInspections)) {
+            getEnabledInspectionTools(LocalInspectionEP.LOCAL_INSPECTION.extensionList, psiFile.language, infoInspections)
+                .filterIsInstance<LocalInspectionTool>()
+                .filterNot { localInspectionTool -> (localInspectionTool.nameProvider as? LocalInspectionEP)?.editorAttributes == "REASSIGNED_LOCAL_VARIABLE_ATTRIBUTES" }
+                .toList()
+        }.filter { localInspectionTool -> localInspectionTool.isAvailableForFile(psiFile) }
     }
 
-    internal fun getSimpleGlobalInspections(language: Language): List<GlobalSimpleInspectionTool> {
-        return getEnabledInspectionTools(InspectionEP.GLOBAL_INSPECTION.extensionList, language)
-            .filterIsInstance<GlobalSimpleInspectionTool>()
-            .toList()
+    internal fun getSimpleGlobalInspections(psiFile: PsiFile): List<GlobalSimpleInspectionTool> {
+        return cachedTools(psiFile.project, InspectionToolsKey(InspectionToolsKind.SIMPLE_GLOBAL, psiFile.language, infoInspections = false)) {
+            getEnabledInspectionTools(InspectionEP.GLOBAL_INSPECTION.extensionList, psiFile.language)
+                .filterIsInstance<GlobalSimpleInspectionTool>()
+                .toList()
+        }
     }
 
-    internal fun getSharedLocalInspectionsFromGlobalTools(language: Language, infoInspections: Boolean = false): List<LocalInspectionTool> {
-        return getEnabledInspectionTools(InspectionEP.GLOBAL_INSPECTION.extensionList, language, infoInspections)
-            .filterIsInstance<GlobalInspectionTool>()
-            .mapNotNull { globalInspectionTool -> globalInspectionTool.sharedLocalInspectionTool }
-            .filterNot { inspectionBlacklist.containsSuperClass(it) }
-            .toList()
+    internal fun getSharedLocalInspectionsFromGlobalTools(psiFile: PsiFile, infoInspections: Boolean = false): List<LocalInspectionTool> {
+        return cachedTools(psiFile.project, InspectionToolsKey(InspectionToolsKind.SHARED_LOCAL, psiFile.language, infoInspections)) {
+            getEnabledInspectionTools(InspectionEP.GLOBAL_INSPECTION.extensionList, psiFile.language, infoInspections)
+                .filterIsInstance<GlobalInspectionTool>()
+                .mapNotNull { globalInspectionTool -> globalInspectionTool.sharedLocalInspectionTool }
+                .filterNot { inspectionBlacklist.containsSuperClass(it) }
+                .toList()
+        }
+    }
+
+    /**
+     * Returns the tools of the [project] for [key], instantiating them by [compute] only once per set of inspection
+     * extensions, and tracing only these instantiations.
+     *
+     * Tool instances are shared by concurrent requests on the same project the same way an inspection profile of the
+     * project shares them between the highlighting passes, while the projects of other servers get instances of their
+     * own. Loading or unloading a plugin replaces the extension lists, which drops the cache.
+     */
+    private fun <T : InspectionProfileEntry> cachedTools(project: Project, key: InspectionToolsKey, compute: () -> List<T>): List<T> {
+        val projectTools = currentToolsCache().tools.getOrPut(project) { ConcurrentHashMap() }
+        @Suppress("UNCHECKED_CAST")
+        return projectTools.getOrPut(key) {
+            tracer.spanBuilder(SPAN_INSPECTION_TOOLS)
+                .setAttribute("inspectionTools.kind", key.kind.name)
+                .setAttribute("inspectionTools.language", key.language.id)
+                .setAttribute("inspectionTools.info", key.infoInspections)
+                .use { span ->
+                    compute().also { span.setAttribute("inspectionTools.count", it.size.toLong()) }
+                }
+        } as List<T>
+    }
+
+    private fun currentToolsCache(): InspectionToolsCache {
+        val localExtensions = LocalInspectionEP.LOCAL_INSPECTION.extensionList
+        val globalExtensions = InspectionEP.GLOBAL_INSPECTION.extensionList
+        toolsCache?.let { cache ->
+            if (cache.localExtensions === localExtensions && cache.globalExtensions === globalExtensions) return cache
+        }
+        return InspectionToolsCache(localExtensions, globalExtensions).also { toolsCache = it }
     }
 
     private fun getEnabledInspectionTools(extensionList: List<InspectionEP>, language: Language, infoInspections: Boolean = false):
@@ -114,6 +176,97 @@ internal class LSInspectionManager(
         )
     }
 
+    /**
+     * Describes the fixes of [descriptor], reported by the inspection [inspectionId] in [file], without performing
+     * them. Returns `null` if the problem is not bound to an element, so it could not be found again.
+     *
+     * Whether a fix is available is only known once it is performed, so unlike [createDiagnosticData] this may
+     * describe fixes which turn out to produce nothing in [performLazyFix].
+     */
+    internal fun createLazyDiagnosticData(descriptor: ProblemDescriptor, inspectionId: String, file: VirtualFile): LazyDiagnosticData? {
+        val element = descriptor.psiElement ?: return null
+        return LazyDiagnosticData(
+            diagnosticSource = diagnosticSource,
+            inspectionId = inspectionId,
+            psi = PsiSerializablePointer.create(element, file),
+            fixes = descriptor.fixes.orEmpty().withIndex()
+                .filterNot { (_, quickFix) -> isBlacklisted(quickFix) }
+                .map { (index, quickFix) -> LazyDiagnosticQuickfixData(name = quickFix.name, index = index) },
+        )
+    }
+
+    /**
+     * Performs the quick-fix [fix] of the problem described by [data], reporting the problem in [psiFile] again.
+     *
+     * Returns an empty list if the problem is gone or the fix produces nothing.
+     */
+    context(server: LSServer)
+    internal fun performLazyFix(psiFile: PsiFile, data: LazyDiagnosticData, fix: LazyDiagnosticQuickfixData): List<ModCommandFix> {
+        val descriptor = findProblemDescriptor(psiFile, data, fix) ?: return emptyList()
+        val quickFix = descriptor.fixes?.getOrNull(fix.index) ?: return emptyList()
+        val modCommand = getModCommand(quickFix, psiFile.project, descriptor) ?: return emptyList()
+        return modCommand.toModCommandFixes(quickFix.name, ActionContext.from(descriptor), MAX_FLATTENED_INSPECTION_FIXES)
+    }
+
+    private fun findProblemDescriptor(
+        psiFile: PsiFile,
+        data: LazyDiagnosticData,
+        fix: LazyDiagnosticQuickfixData,
+    ): ProblemDescriptor? {
+        val element = data.psi.restore(psiFile) ?: return null
+        val inspectionManager = InspectionManagerEx(psiFile.project)
+        val onTheFly = false
+
+        fun ProblemsHolder.findProblem(): ProblemDescriptor? = results.firstOrNull { descriptor ->
+            val problemElement = descriptor.psiElement ?: return@firstOrNull false
+            data.psi.matches(problemElement) && descriptor.fixes?.getOrNull(fix.index)?.name == fix.name
+        }
+
+        val localInspection = (getLocalInspections(psiFile) + getSharedLocalInspectionsFromGlobalTools(psiFile))
+            .firstOrNull { it.id == data.inspectionId }
+        if (localInspection != null) {
+            val fileRange = psiFile.textRange
+            val session = LocalInspectionToolSession(psiFile, fileRange, fileRange, null)
+
+            fun runOn(elements: List<PsiElement>): ProblemDescriptor? {
+                val problemsHolder = ProblemsHolder(inspectionManager, psiFile, onTheFly)
+                val visitor = localInspection.buildVisitor(problemsHolder, onTheFly, session)
+                if (visitor == PsiElementVisitor.EMPTY_VISITOR) return null
+                runCatching {
+                    InspectionVisitorOptimizer(elements).acceptElements(elements, visitor)
+                }.getOrHandleException {
+                    LOG.warn(it)
+                }
+                return problemsHolder.findProblem()
+            }
+
+            // A problem is almost always reported while visiting its element or one of its parents, so the whole
+            // file is only visited for the rare inspection reporting a problem on a parent of the visited element.
+            return runOn(element.parentsWithSelf.toList()) ?: runOn(psiFile.allElements())
+        }
+
+        val globalInspection = getSimpleGlobalInspections(psiFile)
+            .firstOrNull { it.shortName == data.inspectionId } ?: return null
+        val problemsHolder = ProblemsHolder(inspectionManager, psiFile, onTheFly)
+        runCatching {
+            globalInspection.checkFile(
+                /* psiFile = */ psiFile,
+                /* manager = */ inspectionManager,
+                /* problemsHolder = */ problemsHolder,
+                /* globalContext = */ inspectionManager.createNewGlobalContext(),
+                /* problemDescriptionsProcessor = */ object : ProblemDescriptionsProcessor {},
+            )
+        }.getOrHandleException {
+            LOG.warn(it)
+        }
+        return problemsHolder.findProblem()
+    }
+
+    private fun isBlacklisted(fix: QuickFix<*>): Boolean {
+        val fixClass = ReportingClassSubstitutor.getClassToReport(fix).name
+        return quickFixBlacklist.getImplementationBlacklistEntry(fixClass) != null
+    }
+
     private fun getModCommand(fix: QuickFix<*>, project: Project, problemDescriptor: ProblemDescriptor): ModCommand? {
         val fixClass = ReportingClassSubstitutor.getClassToReport(fix).name
         val blacklistEntry = quickFixBlacklist.getImplementationBlacklistEntry(fixClass)
@@ -161,6 +314,30 @@ internal class LSInspectionManager(
     }
 }
 
+private fun PsiFile.allElements(): List<PsiElement> {
+    val elements = arrayListOf<PsiElement>()
+    accept(object : PsiRecursiveElementWalkingVisitor() {
+        override fun visitElement(element: PsiElement) {
+            super.visitElement(element)
+            elements.add(element)
+        }
+    })
+    return elements
+}
+
+private enum class InspectionToolsKind { LOCAL, SIMPLE_GLOBAL, SHARED_LOCAL }
+
+private data class InspectionToolsKey(val kind: InspectionToolsKind, val language: Language, val infoInspections: Boolean)
+
+/**
+ * The tools instantiated from [localExtensions] and [globalExtensions], which are compared by identity: an extension
+ * point hands out the same list until its extensions change. The tools of a project are dropped along with it.
+ */
+private class InspectionToolsCache(val localExtensions: List<InspectionEP>, val globalExtensions: List<InspectionEP>) {
+    val tools: ConcurrentMap<Project, ConcurrentHashMap<InspectionToolsKey, List<InspectionProfileEntry>>> =
+        CollectionFactory.createConcurrentWeakMap()
+}
+
 internal fun isSuppressed(
     localInspection: LocalInspectionTool,
     descriptor: ProblemDescriptor
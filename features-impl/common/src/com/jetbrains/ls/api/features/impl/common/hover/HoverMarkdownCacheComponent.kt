@@ -0,0 +1,106 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.hover
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.ls.snapshot.api.impl.core.rocks.toList
+
+/**
+ * Keeps the markdown rendered by [LSHoverProviderBase] for the targets hovered recently, so that hovering the same
+ * symbols again, as moving the mouse over the code does, neither renders their declaration nor converts their
+ * documentation again.
+ *
+ * The markdown of a library or SDK target stays valid until the workspace model changes, unless its own file changes,
+ * while the markdown of a source target is only valid for the PSI modification count it was rendered at.
+ */
+internal object HoverMarkdownCacheComponent : WorkspaceComponent<HoverMarkdownCache> {
+    override fun init(configData: LSConfigurationData): HoverMarkdownCache = HoverMarkdownCache()
+
+    override fun handleEvent(event: WorkspaceEvent, state: HoverMarkdownCache): HoverMarkdownCache =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles -> state.withoutFiles(event.files.toList().mapTo(HashSet()) { it.url })
+            is WorkspaceEvent.WorkspaceModelChanged -> HoverMarkdownCache()
+            WorkspaceEvent.LowMemory -> HoverMarkdownCache()
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: HoverMarkdownCache,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: HoverMarkdownCache,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+/**
+ * The markdown of at most [ENTRIES_LIMIT] targets, the least recently hovered ones being dropped first.
+ */
+internal class HoverMarkdownCache private constructor(private val entries: MutableMap<Key, Entry>) {
+    constructor() : this(lruMap())
+
+    /**
+     * The stable identity of a hover target: the range of the element of [elementClass] in the file at [fileUrl],
+     * within the [libraryRoot] for a library or SDK target, hovered at the target itself or not, by the [provider].
+     */
+    data class Key(
+        val provider: Any,
+        val libraryRoot: String?,
+        val fileUrl: String,
+        val elementClass: String,
+        val startOffset: Int,
+        val endOffset: Int,
+        val atTarget: Boolean,
+    )
+
+    /**
+     * The [markdown] of a target, if it has any, rendered at [modificationCount] for a source target.
+     */
+    class Entry(val modificationCount: Long?, val markdown: String?)
+
+    /**
+     * The markdown of the target of [key], unless it was not rendered, or was rendered at another modification count
+     * than [modificationCount] for a source target.
+     */
+    operator fun get(key: Key, modificationCount: Long): Entry? {
+        val entry = synchronized(entries) { entries[key] } ?: return null
+        return entry.takeIf { it.modificationCount == null || it.modificationCount == modificationCount }
+    }
+
+    fun put(key: Key, modificationCount: Long, markdown: String?) {
+        val entry = Entry(if (key.libraryRoot == null) modificationCount else null, markdown)
+        synchronized(entries) {
+            entries[key] = entry
+        }
+    }
+
+    fun withoutFiles(fileUrls: Set<String>): HoverMarkdownCache {
+        val retained = lruMap<Key, Entry>()
+        synchronized(entries) {
+            entries.filterTo(retained) { (key, _) -> key.fileUrl !in fileUrls }
+        }
+        return HoverMarkdownCache(retained)
+    }
+
+    companion object {
+        private const val ENTRIES_LIMIT = 1024
+
+        private fun <K, V> lruMap(): MutableMap<K, V> =
+            object : LinkedHashMap<K, V>(16, 0.75f, /* accessOrder = */ true) {
+                override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean =
+                    size > ENTRIES_LIMIT
+            }
+    }
+}
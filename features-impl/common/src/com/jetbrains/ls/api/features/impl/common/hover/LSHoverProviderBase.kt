@@ -5,16 +5,20 @@ import com.intellij.lang.Language
 import com.intellij.lang.LanguageExtension
 import com.intellij.openapi.application.readAction
 import com.intellij.openapi.editor.Document
+import com.intellij.openapi.roots.ProjectFileIndex
 import com.intellij.openapi.vfs.findDocument
 import com.intellij.openapi.vfs.findPsiFile
+import com.intellij.platform.diagnostic.telemetry.TelemetryManager
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
+import com.intellij.psi.util.PsiModificationTracker
 import com.jetbrains.ls.api.core.LSAnalysisContext
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.project
 import com.jetbrains.ls.api.core.util.findVirtualFile
 import com.jetbrains.ls.api.core.util.offsetByPosition
 import com.jetbrains.ls.api.core.util.toLspRange
+import com.jetbrains.ls.api.features.hover.LSHover
 import com.jetbrains.ls.api.features.hover.LSHoverProvider
 import com.jetbrains.ls.api.core.util.getDocumentationTargetAtPosition
 import com.jetbrains.lsp.implementation.LspHandlerContext
@@ -31,6 +35,7 @@ abstract class LSHoverProviderBase : LSHoverProvider {
 
     context(server: LSServer, handlerContext: LspHandlerContext)
     override suspend fun getHover(params: HoverParams): Hover? {
+        val cache = server[HoverMarkdownCacheComponent]
         return server.withAnalysisContext {
             readAction {
                 val virtualFile = params.findVirtualFile() ?: return@readAction null
@@ -43,7 +48,7 @@ abstract class LSHoverProviderBase : LSHoverProvider {
                 if (targets.isEmpty()) return@readAction null
 
                 val markdown = targets.mapNotNull { psiElement ->
-                    generateMarkdownForPsiElementTarget(psiElement, psiFile, offset)
+                    cachedMarkdownForPsiElementTarget(cache, psiElement, psiFile, offset)
                 }.joinToString("\n---\n")
                 if (markdown.isEmpty()) return@readAction null
 
@@ -55,6 +60,50 @@ abstract class LSHoverProviderBase : LSHoverProvider {
         }
     }
 
+    /**
+     * The markdown of the [target], from the [cache] when it was rendered for the same version of the target, which
+     * the hits and misses of the cache are counted by.
+     */
+    context(server: LSServer, analysisContext: LSAnalysisContext)
+    private fun cachedMarkdownForPsiElementTarget(cache: HoverMarkdownCache, target: PsiElement, from: PsiFile, offset: Int): String? {
+        val key = cacheKey(target, from, offset) ?: return generateMarkdownForPsiElementTarget(target, from, offset)
+        val modificationCount = PsiModificationTracker.getInstance(project).modificationCount
+        cache[key, modificationCount]?.let { entry ->
+            markdownCacheHits.add(1)
+            return entry.markdown
+        }
+        markdownCacheMisses.add(1)
+        val markdown = generateMarkdownForPsiElementTarget(target, from, offset)
+        cache.put(key, modificationCount, markdown)
+        return markdown
+    }
+
+    /**
+     * The identity of the [target], as long as the markdown rendered for it depends on the target and on whether it is
+     * hovered at the target itself only, as with the links to the super methods at a method declaration.
+     */
+    context(analysisContext: LSAnalysisContext)
+    private fun cacheKey(target: PsiElement, from: PsiFile, offset: Int): HoverMarkdownCache.Key? {
+        val targetFile = target.containingFile ?: return null
+        val virtualFile = targetFile.virtualFile ?: return null
+        val fileIndex = ProjectFileIndex.getInstance(project)
+        val libraryRoot = if (fileIndex.isInLibrary(virtualFile)) {
+            (fileIndex.getClassRootForFile(virtualFile) ?: fileIndex.getSourceRootForFile(virtualFile))?.url ?: return null
+        } else {
+            null
+        }
+        val range = target.textRange ?: return null
+        return HoverMarkdownCache.Key(
+            provider = this,
+            libraryRoot = libraryRoot,
+            fileUrl = virtualFile.url,
+            elementClass = target.javaClass.name,
+            startOffset = range.startOffset,
+            endOffset = range.endOffset,
+            atTarget = targetFile == from && range.containsOffset(offset),
+        )
+    }
+
     private fun findRange(psiFile: PsiFile, document: Document, position: Position): Range? {
         val offset = document.offsetByPosition(position)
         psiFile.findReferenceAt(offset)?.let { return it.element.textRange.toLspRange(document) }
@@ -65,6 +114,12 @@ abstract class LSHoverProviderBase : LSHoverProvider {
     context(server: LSServer, analysisContext: LSAnalysisContext)
     abstract fun generateMarkdownForPsiElementTarget(target: PsiElement, from: PsiFile, offset: Int): String?
 
+    companion object {
+        private val meter = TelemetryManager.getMeter(LSHover.scope)
+        private val markdownCacheHits = meter.counterBuilder("hover.markdownCache.hits").build()
+        private val markdownCacheMisses = meter.counterBuilder("hover.markdownCache.misses").build()
+    }
+
     interface LSMarkdownDocProvider {
         fun getMarkdownDoc(element: PsiElement): String?
 
@@ -0,0 +1,125 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.inlayHints
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.TextRange
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import com.jetbrains.lsp.protocol.DocumentUri
+import com.jetbrains.lsp.protocol.InlayHint
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Keeps the inlay hints collected by [LSInlayHintsProviderBase] for the blocks of the most recently requested
+ * documents, so that scrolling or requesting an overlapping range does not run the collectors again, and the data
+ * needed to resolve the hints sent, which the hints refer to by a handle instead of carrying it.
+ *
+ * The hints may depend on any file, so any change drops them, while the data to resolve the hints stays valid for the
+ * hints the client has. Low memory drops both, but handles keep increasing, so that a handle the client still has
+ * never refers to the data of another hint.
+ */
+internal object InlayHintsCacheComponent : WorkspaceComponent<InlayHintsCache> {
+    override fun init(configData: LSConfigurationData): InlayHintsCache = InlayHintsCache()
+
+    override fun handleEvent(event: WorkspaceEvent, state: InlayHintsCache): InlayHintsCache =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles -> state.withoutHintBlocks()
+            is WorkspaceEvent.WorkspaceModelChanged -> state.withoutHintBlocks()
+            WorkspaceEvent.LowMemory -> state.withoutEntries()
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: InlayHintsCache,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: InlayHintsCache,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+/**
+ * The range of an element whose hints are collected together, from its descendants too when it is [recursive].
+ */
+internal data class InlayHintBlock(val range: TextRange, val recursive: Boolean)
+
+/**
+ * The hints collected for the blocks of at most [DOCUMENTS_LIMIT] documents, and the data to resolve at most
+ * [RESOLVE_ENTRIES_LIMIT] hints, the least recently used ones being dropped first.
+ */
+internal class InlayHintsCache private constructor(
+    private val nextHandle: AtomicLong,
+    private val resolveEntries: MutableMap<Long, Any>,
+) {
+    constructor() : this(AtomicLong(), lruMap(RESOLVE_ENTRIES_LIMIT))
+
+    private data class DocumentKey(val uri: DocumentUri, val providerId: LSUniqueConfigurationEntry.UniqueId, val options: Any)
+
+    private class HintBlocks(
+        val documentModificationStamp: Long,
+        val blocks: MutableMap<InlayHintBlock, List<InlayHint>> = ConcurrentHashMap(),
+    )
+
+    private val hintBlocks = lruMap<DocumentKey, HintBlocks>(DOCUMENTS_LIMIT)
+
+    fun withoutHintBlocks(): InlayHintsCache = InlayHintsCache(nextHandle, resolveEntries)
+
+    fun withoutEntries(): InlayHintsCache = InlayHintsCache(nextHandle, lruMap(RESOLVE_ENTRIES_LIMIT))
+
+    /**
+     * The hints the provider of [providerId] collected with [options] for blocks of the document at [uri] as of
+     * [documentModificationStamp], by block, to be filled with the blocks collected next.
+     */
+    fun hintBlocks(
+        uri: DocumentUri,
+        providerId: LSUniqueConfigurationEntry.UniqueId,
+        options: Any,
+        documentModificationStamp: Long,
+    ): MutableMap<InlayHintBlock, List<InlayHint>> = synchronized(hintBlocks) {
+        val key = DocumentKey(uri, providerId, options)
+        val blocks = hintBlocks[key]
+            ?.takeIf { it.documentModificationStamp == documentModificationStamp }
+            ?: HintBlocks(documentModificationStamp).also { hintBlocks[key] = it }
+        blocks.blocks
+    }
+
+    /**
+     * Remembers the data to resolve a hint and returns the handle the hint refers to it by.
+     */
+    fun registerResolveEntry(entry: Any): Long {
+        val handle = nextHandle.incrementAndGet()
+        synchronized(resolveEntries) {
+            resolveEntries[handle] = entry
+        }
+        return handle
+    }
+
+    /**
+     * The data to resolve the hint with the [handle], unless it was dropped.
+     */
+    fun resolveEntry(handle: Long): Any? = synchronized(resolveEntries) { resolveEntries[handle] }
+
+    companion object {
+        private const val DOCUMENTS_LIMIT = 32
+        private const val RESOLVE_ENTRIES_LIMIT = 16_384
+
+        private fun <K, V> lruMap(limit: Int): MutableMap<K, V> =
+            object : LinkedHashMap<K, V>(16, 0.75f, /* accessOrder = */ true) {
+                override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>): Boolean =
+                    size > limit
+            }
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.inlayHints
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import kotlinx.serialization.json.JsonElement
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the inlay hint settings of the client for each [LSInlayHintsProviderBase], as pushed by
+ * `workspace/didChangeConfiguration`, so that `textDocument/inlayHint` does not ask the client for them on each
+ * request. Settings pulled by `workspace/configuration` are not kept, since a client which never pushes its settings
+ * would not tell when they change.
+ *
+ * The settings do not depend on the files or on the workspace model, so they are kept whatever happens to them.
+ */
+internal object InlayHintsSettingsComponent : WorkspaceComponent<InlayHintsSettings> {
+    override fun init(configData: LSConfigurationData): InlayHintsSettings = InlayHintsSettings()
+
+    override fun handleEvent(event: WorkspaceEvent, state: InlayHintsSettings): InlayHintsSettings = state
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: InlayHintsSettings,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: InlayHintsSettings,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+internal class InlayHintsSettings {
+    private val sections = ConcurrentHashMap<LSUniqueConfigurationEntry.UniqueId, List<JsonElement?>>()
+
+    /**
+     * The configuration section last pushed for the provider of [providerId], or `null` if it has to be pulled.
+     */
+    operator fun get(providerId: LSUniqueConfigurationEntry.UniqueId): List<JsonElement?>? = sections[providerId]
+
+    /**
+     * Stores the configuration [section] of the provider of [providerId], or forgets it when it is `null`, and
+     * tells whether that changed what is stored.
+     */
+    fun update(providerId: LSUniqueConfigurationEntry.UniqueId, section: List<JsonElement?>?): Boolean {
+        return if (section == null) {
+            sections.remove(providerId) != null
+        } else {
+            sections.put(providerId, section) != section
+        }
+    }
+}
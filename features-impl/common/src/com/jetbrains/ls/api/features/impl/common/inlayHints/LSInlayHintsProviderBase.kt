@@ -27,6 +27,7 @@ import com.intellij.openapi.vfs.findDocument
 import com.intellij.openapi.vfs.findPsiFile
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiWhiteSpace
 import com.intellij.psi.SyntaxTraverser
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.project
@@ -45,6 +46,7 @@ import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.implementation.lspClient
 import com.jetbrains.lsp.protocol.ConfigurationItem
 import com.jetbrains.lsp.protocol.ConfigurationParams
+import com.jetbrains.lsp.protocol.DidChangeConfigurationParams
 import com.jetbrains.lsp.protocol.DocumentUri
 import com.jetbrains.lsp.protocol.InlayHint
 import com.jetbrains.lsp.protocol.InlayHintKind
@@ -53,6 +55,7 @@ import com.jetbrains.lsp.protocol.InlayHintParams
 import com.jetbrains.lsp.protocol.LSP
 import com.jetbrains.lsp.protocol.OrString
 import com.jetbrains.lsp.protocol.Position
+import com.jetbrains.lsp.protocol.Range
 import com.jetbrains.lsp.protocol.TextDocumentIdentifier
 import com.jetbrains.lsp.protocol.Workspace
 import kotlinx.collections.immutable.PersistentList
@@ -64,6 +67,7 @@ import kotlinx.serialization.json.JsonElement
 import kotlinx.serialization.json.JsonObject
 import kotlinx.serialization.json.JsonPrimitive
 import kotlinx.serialization.json.booleanOrNull
+import java.util.concurrent.ConcurrentHashMap
 
 abstract class LSInlayHintsProviderBase(
     override val supportedLanguages: Set<LSLanguage>,
@@ -80,6 +84,19 @@ abstract class LSInlayHintsProviderBase(
      */
     protected abstract val lspConfigurationParamsSection: String?
 
+    /**
+     * The providers created for the options seen recently, as the same few options are used by most requests.
+     */
+    private val providersByOptions = ConcurrentHashMap<InlayOptions, List<Provider>>()
+
+    private fun providers(options: InlayOptions): List<Provider> {
+        providersByOptions[options]?.let { return it }
+        if (providersByOptions.size >= PROVIDERS_CACHE_SIZE) {
+            providersByOptions.clear()
+        }
+        return providersByOptions.computeIfAbsent(options) { createProviders(it) }
+    }
+
     protected class Provider(
         val intellijProvider: InlayHintsProvider,
         val factory: HintFactoryBase
@@ -89,37 +106,92 @@ abstract class LSInlayHintsProviderBase(
         return LSCommonInlayTreeSinkImpl(inlayOptions)
     }
 
+    /**
+     * The hints are collected block by block, a block being a top-level element of the file, or a child of an element
+     * longer than [MAX_HINT_BLOCK_LENGTH], and the hints of the blocks are kept for the same version of the document,
+     * so that the hints of the blocks already collected for another range, such as the previous viewport while
+     * scrolling, are reused.
+     *
+     * The data of each hint is a handle to the data needed to resolve it, which is kept on the server.
+     */
     context(server: LSServer, handlerContext: LspHandlerContext)
     override fun getInlayHints(params: InlayHintParams): Flow<InlayHint> = flow {
-        val result = mutableListOf<InlayHint>()
-        val options = requestEnabledInlayOptions(params.textDocument)
+        val options = enabledInlayOptions(params.textDocument)
+        val cache = server[InlayHintsCacheComponent]
 
-        server.withAnalysisContext {
+        val result = server.withAnalysisContext {
             readAction {
-                val virtualFile = params.textDocument.findVirtualFile() ?: return@readAction
-                val psiFile = virtualFile.findPsiFile(project) ?: return@readAction
-                val document = virtualFile.findDocument() ?: return@readAction
+                val virtualFile = params.textDocument.findVirtualFile() ?: return@readAction emptyList()
+                val psiFile = virtualFile.findPsiFile(project) ?: return@readAction emptyList()
+                val document = virtualFile.findDocument() ?: return@readAction emptyList()
                 val textRange = params.range.toTextRange(document)
                 val editor = ImaginaryEditor(project, document)
+                val providers = providers(options)
+                val collectedBlocks = cache.hintBlocks(params.textDocument.uri, uniqueId, options, document.modificationStamp)
+
+                hintBlocks(psiFile, textRange).flatMap { (element, block) ->
+                    collectedBlocks.getOrPut(block) {
+                        providers.withIndex().flatMap { (providerIndex, provider) ->
+                            collectHints(provider, psiFile, editor, element, block.recursive, options).map { presentation ->
+                                val handle = cache.registerResolveEntry(
+                                    ResolveEntry(params.textDocument, presentation, providerIndex, options)
+                                )
+                                val data = InlayHintResolveHandle(handle, params.textDocument.uri, uniqueId)
+                                provider.factory.createHint(
+                                    presentation,
+                                    psiFile,
+                                    document,
+                                    options,
+                                    LSP.json.encodeToJsonElement(InlayHintResolveHandle.serializer(), data),
+                                )
+                            }
+                        }
+                    }
+                }.filter { it.position in params.range }
+            }
+        }
+        result.forEach { emit(it) }
+    }
 
-                for ((providerIndex, provider) in createProviders(options).withIndex()) {
-                    val presentations = collectHints(provider, psiFile, editor, textRange, options)
-                    for (presentation in presentations) {
-                        result += provider.factory.createHint(
-                            presentation,
-                            psiFile,
-                            document,
-                            InlayHintResolveData(params, presentation, providerIndex, options, uniqueId)
-                        )
+    /**
+     * The blocks intersecting [range] whose hints are collected together: the top-level elements, unless they are
+     * longer than [MAX_HINT_BLOCK_LENGTH], in which case their children are taken instead, the element itself being a
+     * block without its descendants.
+     */
+    private fun hintBlocks(psiFile: PsiFile, range: TextRange): List<Pair<PsiElement, InlayHintBlock>> {
+        val blocks = mutableListOf<Pair<PsiElement, InlayHintBlock>>()
+        fun collect(parent: PsiElement) {
+            blocks += parent to InlayHintBlock(parent.textRange, recursive = false)
+            var child = parent.firstChild
+            while (child != null) {
+                if (range.intersects(child.textRange) && child !is PsiWhiteSpace) {
+                    if (child.textLength <= MAX_HINT_BLOCK_LENGTH || child.firstChild == null) {
+                        blocks += child to InlayHintBlock(child.textRange, recursive = true)
+                    } else {
+                        collect(child)
                     }
                 }
+                child = child.nextSibling
             }
         }
-        result.forEach { emit(it) }
+        collect(psiFile)
+        return blocks
     }
 
-    context(handlerContext: LspHandlerContext)
-    private suspend fun requestEnabledInlayOptions(document: TextDocumentIdentifier): InlayOptions {
+    private operator fun Range.contains(position: Position): Boolean =
+        (start.line < position.line || start.line == position.line && start.character <= position.character) &&
+                (position.line < end.line || position.line == end.line && position.character <= end.character)
+
+    /**
+     * The options from the settings last pushed by the client, which are pulled from the client on each request until
+     * it pushes them, as the pulled settings are not known to be up to date afterward.
+     *
+     * The settings are the same for all the documents, as clients seldom scope the inlay hint settings by resource.
+     */
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    private suspend fun enabledInlayOptions(document: TextDocumentIdentifier): InlayOptions {
+        val settings = server[InlayHintsSettingsComponent]
+        settings[uniqueId]?.let { return InlayOptions.create(it) }
         val raw = lspClient.request(
             Workspace.Configuration,
             ConfigurationParams(
@@ -131,17 +203,37 @@ abstract class LSInlayHintsProviderBase(
         return InlayOptions.create(raw)
     }
 
+    /**
+     * Stores the section of the pushed settings, or forgets the stored one when the client pushed none, as clients
+     * using the pull model send a notification without settings, so that the next request pulls them.
+     */
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    override suspend fun didChangeConfiguration(params: DidChangeConfigurationParams): Boolean {
+        val section = lspConfigurationParamsSection
+            ?.split('.')
+            ?.fold<String, JsonElement?>(params.settings) { element, key -> (element as? JsonObject)?.get(key) }
+            ?: params.settings.takeIf { lspConfigurationParamsSection == null }
+        return server[InlayHintsSettingsComponent].update(uniqueId, section?.let { listOf(it) })
+    }
+
     context(server: LSServer, handlerContext: LspHandlerContext)
     override suspend fun resolveInlayHint(hint: InlayHint): InlayHint? {
         val dataJson = hint.data ?: return null
-        val data = LSP.json.decodeFromJsonElement(InlayHintResolveData.serializer(), dataJson)
+        val handle = LSP.json.decodeFromJsonElement(InlayHintResolveHandle.serializer(), dataJson)
+        val entry = server[InlayHintsCacheComponent].resolveEntry(handle.handle) as? ResolveEntry ?: return null
+        // A handle the client kept across a restart of the server may refer to the entry of another hint.
+        if (entry.textDocument.uri != handle.uri) return null
         return server.withAnalysisContext {
             readAction {
-                val virtualFile = data.params.textDocument.findVirtualFile() ?: return@readAction null
+                val virtualFile = entry.textDocument.findVirtualFile() ?: return@readAction null
                 val psiFile = virtualFile.findPsiFile(project) ?: return@readAction null
                 val document = virtualFile.findDocument() ?: return@readAction null
-                val provider = createProviders(data.options)[data.providerIndex]
-                provider.factory.resolveHint(hint, data.presentation, psiFile, document, data.options)
+                val position = entry.presentation.position.toOriginal() as? InlineInlayPosition ?: return@readAction null
+                if (position.offset > document.textLength || document.positionByOffset(position.offset) != hint.position) {
+                    return@readAction null
+                }
+                val provider = providers(entry.options)[entry.providerIndex]
+                provider.factory.resolveHint(hint, entry.presentation, psiFile, document, entry.options)
             }
         }
     }
@@ -152,7 +244,13 @@ abstract class LSInlayHintsProviderBase(
         private val extraLeftPaddingViaSpace: Boolean,
         private val kind: InlayHintKind?,
     ) {
-        fun createHint(presentation: Presentation, psiFile: PsiFile, document: Document, data: InlayHintResolveData): InlayHint {
+        fun createHint(
+            presentation: Presentation,
+            psiFile: PsiFile,
+            document: Document,
+            options: InlayOptions,
+            data: JsonElement,
+        ): InlayHint {
             val position = presentation.position.toOriginal() as? InlineInlayPosition ?: error("Only inline hints are supported")
             val lspPosition = document.positionByOffset(position.offset)
             val documentUri = DocumentUri(psiFile.virtualFile.uri)
@@ -165,7 +263,7 @@ abstract class LSInlayHintsProviderBase(
                         hint,
                         psiFile,
                         documentUri,
-                        data.options,
+                        options,
                         lspPosition,
                         position.offset,
                         resolve = false
@@ -180,7 +278,7 @@ abstract class LSInlayHintsProviderBase(
                 tooltip = presentation.tooltip?.let { OrString(it) },
                 paddingLeft = paddingLeft,
                 paddingRight = paddingRight,
-                data = LSP.json.encodeToJsonElement(InlayHintResolveData.serializer(), data),
+                data = data,
             )
         }
 
@@ -249,19 +347,25 @@ abstract class LSInlayHintsProviderBase(
         protected abstract fun isCollapsingEnabled(options: InlayOptions): Boolean
     }
 
+    companion object {
+        private const val PROVIDERS_CACHE_SIZE = 8
+        private const val MAX_HINT_BLOCK_LENGTH = 4096
+    }
+
     private fun collectHints(
         provider: Provider,
         psiFile: PsiFile,
         editor: ImaginaryEditor,
-        textRange: TextRange,
+        blockElement: PsiElement,
+        recursive: Boolean,
         inlayOptions: InlayOptions,
     ): List<Presentation> {
         val collector = provider.intellijProvider.createCollector(psiFile, editor) ?: return emptyList()
         val sink = createSink(inlayOptions)
         when (collector) {
             is SharedBypassCollector -> {
-                val traverser = SyntaxTraverser.psiTraverser(psiFile).onRange(textRange)
-                for (element in traverser) {
+                val elements = if (recursive) SyntaxTraverser.psiTraverser(blockElement) else listOf(blockElement)
+                for (element in elements) {
                     collector.collectFromElement(element, sink)
                 }
             }
@@ -309,7 +413,7 @@ abstract class LSInlayHintsProviderBase(
 
 
     @Serializable
-    protected class InlayOptions(private val enabled: Set<String>) {
+    protected data class InlayOptions(private val enabled: Set<String>) {
         fun isEnabled(optionId: String): Boolean {
             return enabled.contains(optionId)
         }
@@ -484,15 +588,24 @@ abstract class LSInlayHintsProviderBase(
         }
     }
 
+    /**
+     * The data of a hint: the handle to its [ResolveEntry], which stays on the server, and the document of the hint,
+     * which the entry is checked against.
+     */
     @Serializable
-    protected data class InlayHintResolveData(
-        val params: InlayHintParams,
-        val presentation: Presentation,
-        val providerIndex: Int,
-        val options: InlayOptions, // we need it to be the same between the main and resolve requests, so we pass it instead of rerequesting
+    private data class InlayHintResolveHandle(
+        val handle: Long,
+        val uri: DocumentUri,
         override val configurationEntryId: LSUniqueConfigurationEntry.UniqueId,
     ) : ResolveDataWithConfigurationEntryId
 
+    private class ResolveEntry(
+        val textDocument: TextDocumentIdentifier,
+        val presentation: Presentation,
+        val providerIndex: Int,
+        val options: InlayOptions, // we need it to be the same between the main and resolve requests, so we keep it instead of rerequesting
+    )
+
 
     @Serializable
     protected sealed interface Hint {
@@ -1,11 +1,19 @@
 // Copyright 2000-2025 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.impl.common.references
 
+import com.intellij.find.findUsages.FindUsagesHandlerBase
 import com.intellij.find.findUsages.FindUsagesManager
+import com.intellij.find.findUsages.FindUsagesOptions
 import com.intellij.openapi.application.readAction
-import com.intellij.openapi.progress.runBlockingCancellable
+import com.intellij.openapi.module.ModuleManager
+import com.intellij.openapi.project.Project
 import com.intellij.openapi.vfs.findPsiFile
-import com.intellij.util.CommonProcessors
+import com.intellij.psi.PsiElement
+import com.intellij.psi.SmartPointerManager
+import com.intellij.psi.SmartPsiElementPointer
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.SearchScope
+import com.jetbrains.ls.api.core.LSAnalysisContext
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.project
 import com.jetbrains.ls.api.core.util.findVirtualFile
@@ -17,49 +25,145 @@ import com.jetbrains.ls.api.features.references.LSReferencesProvider
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.Location
 import com.jetbrains.lsp.protocol.ReferenceParams
+import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.asFlow
 import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flatMapMerge
+import kotlinx.coroutines.flow.flow
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.ceil
 
+/**
+ * Finds the usages of all the targets at the position, such as the overloads or the expect and actual declarations
+ * a reference may resolve to, each location being reported once.
+ *
+ * The search scope of each target is split into groups of modules, and the parts of all the targets are searched
+ * concurrently, each in its own read action, at most [parallelism] at a time: a write action waiting for the lock only
+ * restarts the part in progress, and the usages of a part are sent once its read action is over, so that a slow client
+ * never holds the lock. A target is kept as a smart pointer between the read actions, restored by each of them, and its search is
+ * stopped once it cannot be restored, as when its declaration was deleted meanwhile.
+ */
 class LSCommonReferencesProvider(
     override val supportedLanguages: Set<LSLanguage>,
-    private val targetKinds: Set<TargetKind>
+    private val targetKinds: Set<TargetKind>,
+    private val parallelism: Int = DEFAULT_PARALLELISM,
 ) : LSReferencesProvider {
+    @OptIn(ExperimentalCoroutinesApi::class)
     context(server: LSServer, handlerContext: LspHandlerContext)
     override fun getReferences(params: ReferenceParams): Flow<Location> = channelFlow {
         server.withAnalysisContext {
-            readAction {
-                val virtualFile = params.findVirtualFile() ?: return@readAction
-                val psiFile = virtualFile.findPsiFile(project) ?: return@readAction
+            val searches = readAction {
+                val virtualFile = params.findVirtualFile() ?: return@readAction emptyList()
+                val psiFile = virtualFile.findPsiFile(project) ?: return@readAction emptyList()
                 val targets = psiFile.getTargetsAtPosition(params.position, targetKinds)
-                if (targets.isEmpty()) return@readAction
+                if (targets.isEmpty()) return@readAction emptyList()
 
                 val findUsagesManager = FindUsagesManager(project)
+                targets.mapNotNull { target ->
+                    val handler = findUsagesManager.getFindUsagesHandler(target, true/*forbid showing dialogs*/) ?: return@mapNotNull null
+                    val options = handler.findUsagesOptions.clone().apply {
+                        isSearchForTextOccurrences = false
+                    }
+                    val declaration = if (params.context.includeDeclaration) target.getLspLocationForDefinition() else null
+                    UsagesSearch(
+                        target = SmartPointerManager.createPointer(target),
+                        handler = handler,
+                        options = options,
+                        declaration = declaration,
+                        scopes = partitionScope(options.searchScope),
+                    )
+                }
+            }
 
-                // TODO LSP-241 handle all of them
-                val target = targets.first()
-                val handler = findUsagesManager.getFindUsagesHandler(target, true/*forbid showing dialogs*/) ?: return@readAction
-
-                if (params.context.includeDeclaration) {
-                    target.getLspLocationForDefinition()?.let {
-                        runBlockingCancellable {
-                            channel.send(it)
+            val found = ConcurrentHashMap.newKeySet<Location>()
+            for (declaration in searches.mapNotNull { it.declaration }) {
+                if (found.add(declaration)) {
+                    send(declaration)
+                }
+            }
+            searches.flatMap { search -> search.scopes.map { scope -> search to scope } }
+                .asFlow()
+                .flatMapMerge(concurrency = parallelism) { (search, scope) ->
+                    flow {
+                        if (search.isTargetGone) return@flow
+                        readAction { search.findUsages(project, scope) }?.let { emit(it) }
+                    }
+                }
+                .collect { locations ->
+                    for (location in locations) {
+                        if (found.add(location)) {
+                            send(location)
                         }
                     }
                 }
-                handler.processElementUsages(
-                    target, CommonProcessors.UniqueProcessor({ result ->
-                        val location = result.element?.getLspLocationForDefinition() ?: return@UniqueProcessor true
+        }
+    }
 
-                        runBlockingCancellable {
-                            channel.send(location)
-                        }
-                        true
-                    }),
-                    handler.findUsagesOptions.apply { 
-                        isSearchForTextOccurrences = false
+    /**
+     * Splits the [scope] into at most [CHUNKS_PER_SEARCH] times [parallelism] parts of the modules, each made of
+     * modules next to each other, and the part outside any module, such as the libraries: enough parts to keep the
+     * searches busy when some are smaller, but not one per module, which would restart the search for every module
+     * of a large project.
+     */
+    context(analysisContext: LSAnalysisContext)
+    private fun partitionScope(scope: SearchScope): List<SearchScope> {
+        if (scope !is GlobalSearchScope) return listOf(scope)
+        val moduleScopes = ModuleManager.getInstance(project).modules.map { GlobalSearchScope.moduleScope(it) }
+        if (moduleScopes.size < 2) return listOf(scope)
+        val chunkSize = ceil(moduleScopes.size.toDouble() / (parallelism * CHUNKS_PER_SEARCH)).toInt()
+        val moduleChunks = moduleScopes.chunked(chunkSize) { GlobalSearchScope.union(it.toList()) }
+        val outsideModules = GlobalSearchScope.notScope(GlobalSearchScope.union(moduleScopes))
+        return (moduleChunks + outsideModules).map { scope.intersectWith(it) }
+    }
+
+    private class UsagesSearch(
+        val target: SmartPsiElementPointer<PsiElement>,
+        private var handler: FindUsagesHandlerBase,
+        val options: FindUsagesOptions,
+        val declaration: Location?,
+        val scopes: List<SearchScope>,
+    ) {
+        @Volatile
+        var isTargetGone: Boolean = false
+            private set
+
+        /**
+         * The usages of the target in the [scope], or `null` once the target is gone. A target restored as another
+         * element, after its file was reparsed, gets a handler of its own.
+         */
+        fun findUsages(project: Project, scope: SearchScope): List<Location>? {
+            val target = target.element?.takeIf { it.isValid }
+            if (target == null) {
+                isTargetGone = true
+                return null
+            }
+            val handler = synchronized(this) {
+                if (handler.psiElement != target) {
+                    handler = FindUsagesManager(project).getFindUsagesHandler(target, true/*forbid showing dialogs*/) ?: run {
+                        isTargetGone = true
+                        return null
                     }
-                )
+                }
+                handler
             }
+            val locations = mutableListOf<Location>()
+            val scopeOptions = options.clone().apply { searchScope = scope }
+            handler.processElementUsages(
+                target,
+                { usage ->
+                    usage.element?.getLspLocationForDefinition()?.let { locations.add(it) }
+                    true
+                },
+                scopeOptions,
+            )
+            return locations
         }
     }
+
+    companion object {
+        const val DEFAULT_PARALLELISM: Int = 4
+
+        private const val CHUNKS_PER_SEARCH: Int = 4
+    }
 }
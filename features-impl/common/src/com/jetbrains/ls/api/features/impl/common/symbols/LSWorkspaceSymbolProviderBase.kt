@@ -6,21 +6,40 @@ import com.intellij.navigation.ChooseByNameContributorEx
 import com.intellij.navigation.ChooseByNameContributorEx2
 import com.intellij.navigation.GotoClassContributor
 import com.intellij.navigation.NavigationItem
+import com.intellij.navigation.PsiElementNavigationItem
 import com.intellij.openapi.application.readAction
+import com.intellij.openapi.module.ModuleManager
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.psi.PsiElement
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectScope
 import com.intellij.util.Processor
 import com.intellij.util.indexing.FindSymbolParameters
 import com.jetbrains.ls.api.core.LSAnalysisContext
 import com.jetbrains.ls.api.core.LSServer
 import com.jetbrains.ls.api.core.project
 import com.jetbrains.ls.api.features.symbols.LSWorkspaceSymbolProvider
+import com.jetbrains.ls.api.features.symbols.SymbolNameIndex
+import com.jetbrains.ls.api.features.utils.LSBackgroundScopeComponent
 import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.protocol.SymbolKind
 import com.jetbrains.lsp.protocol.WorkspaceSymbol
 import com.jetbrains.lsp.protocol.WorkspaceSymbolParams
-import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.seconds
 
 abstract class LSWorkspaceSymbolProviderBase : LSWorkspaceSymbolProvider {
     abstract fun getContributors(): List<ChooseByNameContributor>
@@ -28,23 +47,75 @@ abstract class LSWorkspaceSymbolProviderBase : LSWorkspaceSymbolProvider {
     context(server: LSServer, analysisContext: LSAnalysisContext)
     abstract fun createWorkspaceSymbol(item: NavigationItem, contributor: ChooseByNameContributor, qualifiedQuery: Boolean = false): WorkspaceSymbol?
 
+    /**
+     * Maximum number of symbols answered for a query.
+     */
+    protected open val resultLimit: Int = DEFAULT_RESULT_LIMIT
+
+    /**
+     * Time after which the symbols found so far are answered, the contributors still searching being cancelled.
+     */
+    protected open val timeBudget: Duration = DEFAULT_TIME_BUDGET
+
+    /**
+     * Merges the symbols of all the contributors: a declaration reachable through several contributors is answered
+     * once, and at most [resultLimit] symbols found within the [timeBudget] are answered, the best ranked first.
+     * When the client accepts partial results, the symbols are rather streamed as they are found, each contributor
+     * providing its best matches first.
+     *
+     * The search runs on the last name indexes built while newer ones are being built after a change of the files.
+     * Only when there is none yet, the index being built is awaited before the [timeBudget] starts: it is built in
+     * the background of the server, shared by the queries, so a query giving up on it would only delay the next one.
+     */
     context(server: LSServer, handlerContext: LspHandlerContext)
     final override fun getWorkspaceSymbols(params: WorkspaceSymbolParams): Flow<WorkspaceSymbol> = channelFlow {
-        server.withAnalysisContext {
-            coroutineScope {
-                for (contributor in getContributors()) {
-                    launch { handleContributor(contributor, params.query, params.excludeLibraries == true, channel) }
+        if (params.query.isBlank()) return@channelFlow
+        val streaming = params.partialResultToken != null
+        val seen = ConcurrentHashMap.newKeySet<SymbolKey>()
+        val found = ConcurrentLinkedQueue<RankedSymbol>()
+        val sent = AtomicInteger()
+        val excludeLibraries = params.excludeLibraries == true
+        val backgroundScope = server[LSBackgroundScopeComponent].scope
+        val contributorIndexes = getContributors()
+            .map { contributor -> contributor to awaitIndex(contributor, excludeLibraries, backgroundScope) }
+        withTimeoutOrNull(timeBudget) {
+            server.withAnalysisContext {
+                coroutineScope {
+                    for ((contributor, index) in contributorIndexes) {
+                        launch {
+                            handleContributor(contributor, index, params.query, excludeLibraries) { ranked ->
+                                if (seen.add(SymbolKey(ranked.symbol))) {
+                                    if (!streaming) {
+                                        found.add(ranked)
+                                    } else if (sent.incrementAndGet() <= resultLimit) {
+                                        send(ranked.symbol)
+                                    }
+                                }
+                                !streaming || sent.get() < resultLimit
+                            }
+                        }
+                    }
                 }
             }
         }
+        if (!streaming) {
+            for (ranked in found.sortedWith(RANKED_SYMBOL_ORDER).take(resultLimit)) {
+                send(ranked.symbol)
+            }
+        }
     }
 
+    /**
+     * Passes the symbols of the [contributor] matching the [query] among the names of its [index] to [onSymbol], best
+     * matches first, until it returns `false`.
+     */
     context(server: LSServer, analysisContext: LSAnalysisContext)
     private suspend fun handleContributor(
         contributor: ChooseByNameContributor,
+        index: SymbolNameIndex,
         query: String,
         excludeLibraries: Boolean,
-        channel: SendChannel<WorkspaceSymbol>
+        onSymbol: suspend (RankedSymbol) -> Boolean,
     ) {
         if (query.isBlank()) return
         var qualifiedName: String? = null
@@ -62,67 +133,194 @@ abstract class LSWorkspaceSymbolProviderBase : LSWorkspaceSymbolProvider {
         }
         val searchScope = FindSymbolParameters.searchScopeFor(project, /* searchInLibraries = */ !excludeLibraries)
         val parameters = FindSymbolParameters(query, shortName, searchScope)
-        // Mirrors ContributorsBasedGotoByModel.doProcessContributorNames: dispatch on Ex2/Ex/base,
-        // collecting into a set to deduplicate names that appear in multiple indices
-        // (e.g. a field name present in both FIELDS and RECORD_COMPONENTS for Java records).
-        val names: Set<String> = readAction {
-            when (contributor) {
-                is ChooseByNameContributorEx2 -> NameCollector(shortName).let { contributor.processNames(it, parameters); it.result }
-
-                is ChooseByNameContributorEx -> NameCollector(shortName).let { contributor.processNames(it, searchScope, /* filter = */ null); it.result }
-
-                else -> contributor.getNames(project, /* includeNonProjectItems = */ !excludeLibraries)
-                    .filter { name -> isApplicableName(name, shortName) }
-                    .toSet()
-            }
-        }
-        for (name in names) {
-            val items = readAction {
-                val result = mutableListOf<NavigationItem>()
-                when (contributor) {
-                    is ChooseByNameContributorEx -> contributor.processElementsWithName(name, result::add, parameters)
-                    else -> result.addAll(
-                        contributor.getItemsByName(
-                            name, shortName, project,
-                            /* includeNonProjectItems = */ !excludeLibraries,
+        val names = index.search(shortName, NAVIGATION_ITEM_LIMIT)
+        for (batch in names.chunked(NAMES_PER_READ_ACTION)) {
+            val symbols = readAction {
+                batch.flatMap { name ->
+                    val result = mutableListOf<NavigationItem>()
+                    when (contributor) {
+                        is ChooseByNameContributorEx -> contributor.processElementsWithName(name, result::add, parameters)
+                        else -> result.addAll(
+                            contributor.getItemsByName(
+                                name, shortName, project,
+                                /* includeNonProjectItems = */ !excludeLibraries,
+                            )
                         )
-                    )
-                }
-                if (qualifiedName != null && contributor is GotoClassContributor) {
-                    result.filter { contributor.getQualifiedName(it)?.contains(qualifiedName, ignoreCase = true) == true }
-                } else {
-                    result
+                    }
+                    val items = if (qualifiedName != null && contributor is GotoClassContributor) {
+                        result.filter { contributor.getQualifiedName(it)?.contains(qualifiedName, ignoreCase = true) == true }
+                    } else {
+                        result
+                    }
+                    val matchKind = matchKind(name, shortName)
+                    items.mapNotNull { item ->
+                        createWorkspaceSymbol(item, contributor, qualifiedName != null)?.let { symbol ->
+                            RankedSymbol(symbol, name, matchKind, isInLibrary(item))
+                        }
+                    }
                 }
             }
-            for (item in items) {
-                readAction { createWorkspaceSymbol(item, contributor, qualifiedName != null) }?.let {
-                    channel.send(it)
-                }
+            for (symbol in symbols) {
+                if (!onSymbol(symbol)) return
             }
         }
     }
 
-    private class NameCollector(private val shortName: String) : Processor<String> {
-        val result: Set<String>
-            field = mutableSetOf()
+    context(analysisContext: LSAnalysisContext)
+    private fun isInLibrary(item: NavigationItem): Boolean {
+        val element = (item as? PsiElementNavigationItem)?.targetElement ?: item as? PsiElement ?: return false
+        val file = element.containingFile?.virtualFile ?: return false
+        return !ProjectFileIndex.getInstance(project).isInContent(file)
+    }
+
+    /**
+     * The index of the names of the [contributor], from the sources only when [excludeLibraries]: the one built for
+     * the current files, or else the last one built while the current one is being built in the [backgroundScope].
+     * A build cancelled by a change of the workspace model is started again on the indexes that follow it.
+     */
+    context(server: LSServer)
+    private suspend fun awaitIndex(
+        contributor: ChooseByNameContributor,
+        excludeLibraries: Boolean,
+        backgroundScope: CoroutineScope,
+    ): SymbolNameIndex {
+        while (true) {
+            val indexes = server[WorkspaceSymbolIndexComponent]
+            val index = indexes.index(contributor, excludeLibraries, backgroundScope)
+            if (!index.isCompleted) {
+                indexes.lastIndex(contributor, excludeLibraries)?.let { return it }
+            }
+            try {
+                return index.await()
+            } catch (e: CancellationException) {
+                currentCoroutineContext().ensureActive()
+            }
+        }
+    }
+
+    /**
+     * The index of the names of the [contributor], from the sources only when [excludeLibraries], built in the
+     * [backgroundScope] unless it already is.
+     */
+    context(server: LSServer)
+    private fun WorkspaceSymbolIndexes.index(
+        contributor: ChooseByNameContributor,
+        excludeLibraries: Boolean,
+        backgroundScope: CoroutineScope,
+    ): Deferred<SymbolNameIndex> = index(
+        contributor = contributor,
+        excludeLibraries = excludeLibraries,
+        scope = backgroundScope,
+        collectSourceNames = { collectSourceNames(contributor) },
+        collectLibraryNames = { collectLibraryNames(contributor) },
+    )
+
+    /**
+     * The names the [contributor] finds in the source modules, collected [MODULES_PER_READ_ACTION] modules at a time,
+     * each batch in its own read action, so that the collection yields to the write actions in between.
+     */
+    context(server: LSServer)
+    private suspend fun collectSourceNames(contributor: ChooseByNameContributor): Set<String> =
+        server.withAnalysisContext {
+            val names = HashSet<String>()
+            if (contributor is ChooseByNameContributorEx2 || contributor is ChooseByNameContributorEx) {
+                val moduleScopes = readAction {
+                    ModuleManager.getInstance(project).modules.map { GlobalSearchScope.moduleScope(it) }
+                }
+                for (batch in moduleScopes.chunked(MODULES_PER_READ_ACTION)) {
+                    readAction { collectNames(contributor, GlobalSearchScope.union(batch), names) }
+                }
+            } else {
+                readAction { names.addAll(contributor.getNames(project, /* includeNonProjectItems = */ false)) }
+            }
+            names
+        }
 
-        override fun process(name: String?): Boolean {
-            if (name == null) return true
-            if (isApplicableName(name, shortName)) {
-                result.add(name)
+    /**
+     * The names the [contributor] finds in the libraries and SDKs, which only change with the workspace model.
+     */
+    context(server: LSServer)
+    private suspend fun collectLibraryNames(contributor: ChooseByNameContributor): Set<String> =
+        server.withAnalysisContext {
+            val names = HashSet<String>()
+            readAction {
+                if (contributor is ChooseByNameContributorEx2 || contributor is ChooseByNameContributorEx) {
+                    collectNames(contributor, ProjectScope.getLibrariesScope(project), names)
+                } else {
+                    // Without a scope to restrict them to, these are the names of the sources too.
+                    names.addAll(contributor.getNames(project, /* includeNonProjectItems = */ true))
+                }
             }
-            return result.size < NAVIGATION_ITEM_LIMIT
+            names
+        }
+
+    /**
+     * Adds all the names the [contributor] finds in the [searchScope], whatever the query, to [names].
+     *
+     * Mirrors ContributorsBasedGotoByModel.doProcessContributorNames: dispatch on Ex2/Ex,
+     * collecting into a set to deduplicate names that appear in multiple indices
+     * (e.g. a field name present in both FIELDS and RECORD_COMPONENTS for Java records).
+     */
+    private fun collectNames(contributor: ChooseByNameContributor, searchScope: GlobalSearchScope, names: MutableSet<String>) {
+        val processor = Processor<String> { name ->
+            if (name != null) names.add(name)
+            true
+        }
+        when (contributor) {
+            is ChooseByNameContributorEx2 -> contributor.processNames(processor, FindSymbolParameters("", "", searchScope))
+            is ChooseByNameContributorEx -> contributor.processNames(processor, searchScope, /* filter = */ null)
         }
     }
 
     companion object {
         /**
-         * Maximum number of names that one contributor can provide.
+         * Maximum number of names that one contributor can provide, the best matching ones.
          * NB: for 1 name there could be multiple [NavigationItem],
          * but usually their size is not too big
          */
         private const val NAVIGATION_ITEM_LIMIT = 1000
 
-        private fun isApplicableName(name: String, shortName: String) = shortName.isEmpty() || name.contains(shortName, ignoreCase = true)
+        /**
+         * Number of names whose items are looked up and converted in a single read action.
+         */
+        private const val NAMES_PER_READ_ACTION = 50
+
+        /**
+         * Number of modules whose names are collected in a single read action.
+         */
+        private const val MODULES_PER_READ_ACTION = 16
+
+        const val DEFAULT_RESULT_LIMIT: Int = 500
+        val DEFAULT_TIME_BUDGET: Duration = 3.seconds
+
+        private const val MATCH_EXACT = 0
+        private const val MATCH_PREFIX = 1
+        private const val MATCH_CAMEL_HUMPS = 2
+        private const val MATCH_SUBSTRING = 3
+
+        private fun matchKind(name: String, shortName: String): Int = when {
+            name.equals(shortName, ignoreCase = true) -> MATCH_EXACT
+            name.startsWith(shortName, ignoreCase = true) -> MATCH_PREFIX
+            name.contains(shortName, ignoreCase = true) -> MATCH_SUBSTRING
+            else -> MATCH_CAMEL_HUMPS
+        }
+
+        private val RANKED_SYMBOL_ORDER: Comparator<RankedSymbol> = compareBy<RankedSymbol> { it.matchKind }
+            .thenBy { it.inLibrary }
+            .thenBy { it.name.length }
+            .thenBy { it.symbol.name }
     }
 }
+
+/**
+ * A symbol found for the short [name] matching the query as [matchKind] tells, ranked against the symbols of the
+ * other contributors.
+ */
+private class RankedSymbol(val symbol: WorkspaceSymbol, val name: String, val matchKind: Int, val inLibrary: Boolean)
+
+/**
+ * Identifies a declaration whichever contributor found it.
+ */
+private data class SymbolKey(val name: String, val kind: SymbolKind, val location: WorkspaceSymbol.SymbolLocation) {
+    constructor(symbol: WorkspaceSymbol) : this(symbol.name, symbol.kind, symbol.location)
+}
@@ -0,0 +1,135 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.symbols
+
+import com.intellij.navigation.ChooseByNameContributor
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.api.features.symbols.SymbolNameIndex
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the names provided by each contributor of [LSWorkspaceSymbolProviderBase], indexed for the queries of
+ * `workspace/symbol`, which are typed character by character and would otherwise scan all the names each time.
+ *
+ * The names of the sources may change with any file, so a change of the files drops them, along with the indexes,
+ * while the names of the libraries and SDKs are kept until the workspace model changes. What is dropped is built
+ * again on the next query. The builds in progress are not cancelled by a change of the files, since queries may be
+ * waiting for them, and the last index built for each contributor is kept until a newer one is, so that queries can
+ * be answered from it meanwhile.
+ */
+internal object WorkspaceSymbolIndexComponent : WorkspaceComponent<WorkspaceSymbolIndexes> {
+    override fun init(configData: LSConfigurationData): WorkspaceSymbolIndexes = WorkspaceSymbolIndexes()
+
+    override fun handleEvent(event: WorkspaceEvent, state: WorkspaceSymbolIndexes): WorkspaceSymbolIndexes =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles -> state.withoutSourceNames()
+            is WorkspaceEvent.WorkspaceModelChanged, WorkspaceEvent.LowMemory -> {
+                state.cancelBuilds()
+                WorkspaceSymbolIndexes()
+            }
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: WorkspaceSymbolIndexes,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: WorkspaceSymbolIndexes,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+internal class WorkspaceSymbolIndexes private constructor(
+    private val generation: Long,
+    private val libraryNames: ConcurrentHashMap<String, Deferred<Set<String>>>,
+    private val lastIndexes: ConcurrentHashMap<Key, BuiltIndex>,
+) {
+    constructor() : this(0, ConcurrentHashMap(), ConcurrentHashMap())
+
+    private data class Key(val contributorClass: String, val excludeLibraries: Boolean)
+
+    private class BuiltIndex(val generation: Long, val index: SymbolNameIndex)
+
+    private val sourceNames = ConcurrentHashMap<String, Deferred<Set<String>>>()
+
+    private val indexes = ConcurrentHashMap<Key, Deferred<SymbolNameIndex>>()
+
+    /**
+     * These indexes without the names of the sources, keeping the names of the libraries and the last indexes built.
+     * The builds in progress go on, and the indexes they build are kept as the last ones unless newer ones are built.
+     */
+    fun withoutSourceNames(): WorkspaceSymbolIndexes = WorkspaceSymbolIndexes(generation + 1, libraryNames, lastIndexes)
+
+    /**
+     * The last index of the names of the [contributor] built, possibly before the last change of the files, or `null`
+     * if none was built since the workspace model changed.
+     */
+    fun lastIndex(contributor: ChooseByNameContributor, excludeLibraries: Boolean): SymbolNameIndex? =
+        lastIndexes[Key(contributor.javaClass.name, excludeLibraries)]?.index
+
+    /**
+     * The index of the names of the [contributor], built in the [scope] from [collectSourceNames], and from
+     * [collectLibraryNames] unless [excludeLibraries], unless it already is or is being built. The builds are shared
+     * by the concurrent queries, and are not cancelled along with any of them; a build which failed is dropped, to
+     * be started again by the next query.
+     */
+    fun index(
+        contributor: ChooseByNameContributor,
+        excludeLibraries: Boolean,
+        scope: CoroutineScope,
+        collectSourceNames: suspend () -> Set<String>,
+        collectLibraryNames: suspend () -> Set<String>,
+    ): Deferred<SymbolNameIndex> {
+        val contributorClass = contributor.javaClass.name
+        val key = Key(contributorClass, excludeLibraries)
+        return indexes.build(key, scope) {
+            val sources = sourceNames.build(contributorClass, scope, collectSourceNames)
+            val libraries = if (excludeLibraries) null else libraryNames.build(contributorClass, scope, collectLibraryNames)
+            val names = sources.await()
+            val index = SymbolNameIndex(libraries?.await()?.let { names + it } ?: names)
+            // A build started before a change of the files may finish after one started since.
+            lastIndexes.merge(key, BuiltIndex(generation, index)) { last, built ->
+                if (built.generation >= last.generation) built else last
+            }
+            index
+        }
+    }
+
+    fun cancelBuilds() {
+        libraryNames.values.forEach { it.cancel() }
+        sourceNames.values.forEach { it.cancel() }
+        indexes.values.forEach { it.cancel() }
+    }
+
+    private fun <K, T> ConcurrentHashMap<K, Deferred<T>>.build(
+        key: K,
+        scope: CoroutineScope,
+        compute: suspend () -> T,
+    ): Deferred<T> {
+        get(key)?.let { return it }
+        val deferred = scope.async(start = CoroutineStart.LAZY) { compute() }
+        putIfAbsent(key, deferred)?.let { built ->
+            deferred.cancel()
+            return built
+        }
+        deferred.invokeOnCompletion { cause -> if (cause != null) remove(key, deferred) }
+        deferred.start()
+        return deferred
+    }
+}
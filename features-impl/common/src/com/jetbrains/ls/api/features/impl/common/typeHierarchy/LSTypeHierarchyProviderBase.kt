@@ -0,0 +1,176 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.common.typeHierarchy
+
+import com.intellij.openapi.application.readAction
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.openapi.editor.impl.ImaginaryEditor
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.vfs.findDocument
+import com.intellij.psi.CommonClassNames
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiClassOwner
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiNameIdentifierOwner
+import com.intellij.psi.SmartPointerManager
+import com.intellij.psi.SmartPsiElementPointer
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.searches.DirectClassInheritorsSearch
+import com.intellij.util.Processor
+import com.jetbrains.ls.api.core.LSServer
+import com.jetbrains.ls.api.core.project
+import com.jetbrains.ls.api.core.util.findVirtualFile
+import com.jetbrains.ls.api.core.util.offsetByPosition
+import com.jetbrains.ls.api.core.util.toLspRange
+import com.jetbrains.ls.api.core.util.uri
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
+import com.jetbrains.ls.api.features.impl.common.utils.findElementUnderCaret
+import com.jetbrains.ls.api.features.resolve.ResolveDataWithConfigurationEntryId
+import com.jetbrains.ls.api.features.typeHierarchy.LSTypeHierarchyProvider
+import com.jetbrains.ls.api.features.utils.PsiSerializablePointer
+import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.protocol.DocumentUri
+import com.jetbrains.lsp.protocol.LSP
+import com.jetbrains.lsp.protocol.SymbolKind
+import com.jetbrains.lsp.protocol.TypeHierarchyItem
+import com.jetbrains.lsp.protocol.TypeHierarchyPrepareParams
+import com.jetbrains.lsp.protocol.TypeHierarchySubtypesParams
+import com.jetbrains.lsp.protocol.TypeHierarchySupertypesParams
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.encodeToJsonElement
+
+private val LOG = logger<LSTypeHierarchyProviderBase>()
+
+/**
+ * Builds the type hierarchy of a class from its [PsiClass], so that the Kotlin and the Java classes of a hierarchy are
+ * all found whatever the language of the class it starts from.
+ *
+ * The subtypes come from the direct inheritors search, which is served by the super class name indexes built along
+ * with the other stub indexes and updated when a file changes, rather than by a search of the references of the class.
+ * A class may have thousands of inheritors, so they are rendered [SUBTYPES_PER_READ_ACTION] at a time, each page in its
+ * own read action, and sent as partial results when the client supports them.
+ */
+abstract class LSTypeHierarchyProviderBase : LSTypeHierarchyProvider {
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    override suspend fun prepareTypeHierarchy(params: TypeHierarchyPrepareParams): List<TypeHierarchyItem>? {
+        return server.withAnalysisContext {
+            readAction {
+                val virtualFile = params.textDocument.findVirtualFile() ?: return@readAction null
+                val document = virtualFile.findDocument() ?: return@readAction null
+                val offset = document.offsetByPosition(params.position)
+                val element = findElementUnderCaret(ImaginaryEditor(project, document), offset) ?: return@readAction null
+                val psiClass = toPsiClass(element) ?: return@readAction null
+                createTypeHierarchyItem(psiClass)?.let { listOf(it) }
+            }
+        }
+    }
+
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    override suspend fun supertypes(params: TypeHierarchySupertypesParams): List<TypeHierarchyItem>? {
+        val itemData = TypeHierarchyItemData.fromJson(params.item.data) ?: return null
+        return server.withAnalysisContext {
+            readAction {
+                val psiClass = itemData.restore(project) ?: return@readAction null
+                psiClass.supers
+                    .filter { it.qualifiedName != CommonClassNames.JAVA_LANG_OBJECT }
+                    .mapNotNull { createTypeHierarchyItem(it) }
+            }
+        }
+    }
+
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    override fun subtypes(params: TypeHierarchySubtypesParams): Flow<TypeHierarchyItem> = flow {
+        val itemData = TypeHierarchyItemData.fromJson(params.item.data) ?: return@flow
+        server.withAnalysisContext {
+            val inheritors = readAction {
+                val psiClass = itemData.restore(project) ?: return@readAction emptyList()
+                val pointerManager = SmartPointerManager.getInstance(project)
+                val inheritors = mutableListOf<SmartPsiElementPointer<PsiClass>>()
+                DirectClassInheritorsSearch.search(psiClass, GlobalSearchScope.projectScope(project), /* includeAnonymous = */ false)
+                    .forEach(Processor { inheritor ->
+                        inheritors.add(pointerManager.createSmartPsiElementPointer(inheritor))
+                        inheritors.size < SUBTYPES_LIMIT
+                    })
+                inheritors
+            }
+            for (page in inheritors.chunked(SUBTYPES_PER_READ_ACTION)) {
+                val items = readAction { page.mapNotNull { pointer -> pointer.element?.let { createTypeHierarchyItem(it) } } }
+                for (item in items) {
+                    emit(item)
+                }
+            }
+        }
+    }
+
+    /**
+     * The class declared by the [element] under the caret, or referenced by it.
+     */
+    protected abstract fun toPsiClass(element: PsiElement): PsiClass?
+
+    /**
+     * The kind of the [declaration] of a class, which is the [PsiClass] itself for a Java class.
+     */
+    protected open fun getSymbolKind(declaration: PsiElement): SymbolKind? {
+        val psiClass = declaration as? PsiClass ?: return null
+        return when {
+            psiClass.isInterface -> SymbolKind.Interface
+            psiClass.isEnum -> SymbolKind.Enum
+            psiClass.isRecord -> SymbolKind.Struct
+            else -> SymbolKind.Class
+        }
+    }
+
+    private fun createTypeHierarchyItem(psiClass: PsiClass): TypeHierarchyItem? {
+        val declaration = psiClass.navigationElement
+        val file = declaration.containingFile ?: return null
+        val virtualFile = file.virtualFile ?: return null
+        val document = virtualFile.findDocument() ?: return null
+        val range = declaration.textRange.toLspRange(document)
+        val selectionRange = (declaration as? PsiNameIdentifierOwner)?.nameIdentifier?.textRange?.toLspRange(document) ?: range
+        return TypeHierarchyItem(
+            name = psiClass.name ?: return null,
+            kind = getSymbolKind(declaration) ?: return null,
+            tags = null,
+            detail = (file as? PsiClassOwner)?.packageName?.takeIf { it.isNotEmpty() },
+            uri = DocumentUri(virtualFile.uri),
+            range = range,
+            selectionRange = selectionRange,
+            data = LSP.json.encodeToJsonElement(
+                TypeHierarchyItemData(
+                    pointer = PsiSerializablePointer.create(declaration, virtualFile),
+                    configurationEntryId = uniqueId,
+                ),
+            ),
+        )
+    }
+
+    private fun TypeHierarchyItemData.restore(project: Project): PsiClass? {
+        val declaration = pointer.restore(project) ?: return null
+        return toPsiClass(declaration)
+    }
+
+    companion object {
+        private const val SUBTYPES_PER_READ_ACTION = 100
+        private const val SUBTYPES_LIMIT = 10_000
+    }
+
+    @Serializable
+    data class TypeHierarchyItemData(
+        val pointer: PsiSerializablePointer,
+        override val configurationEntryId: LSUniqueConfigurationEntry.UniqueId,
+    ) : ResolveDataWithConfigurationEntryId {
+        companion object {
+            fun fromJson(jsonElement: JsonElement?): TypeHierarchyItemData? {
+                if (jsonElement == null) return null
+                return try {
+                    LSP.json.decodeFromJsonElement(serializer(), jsonElement)
+                } catch (e: Exception) {
+                    LOG.error("Unable to deserialize TypeHierarchyItemData from JSON", e)
+                    return null
+                }
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ val LSJavaBaseLanguageConfiguration: LSConfigurationPiece = LSConfigurationPiece
                 return containingFile.uri.scheme in listOf(URI.Schemas.JRT, URI.Schemas.JAR, URI.Schemas.ZIP)
             }
         },
+        LSJavaTypeHierarchyProvider,
     ),
     plugins = listOf(
         javaPlugin,
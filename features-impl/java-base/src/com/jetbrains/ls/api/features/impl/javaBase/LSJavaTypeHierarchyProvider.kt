@@ -0,0 +1,34 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.javaBase
+
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiElement
+import com.jetbrains.ls.api.core.LSServer
+import com.jetbrains.ls.api.core.util.scheme
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
+import com.jetbrains.ls.api.features.impl.common.typeHierarchy.LSTypeHierarchyProviderBase
+import com.jetbrains.ls.api.features.language.LSLanguage
+import com.jetbrains.lsp.implementation.LspHandlerContext
+import com.jetbrains.lsp.protocol.TypeHierarchyItem
+import com.jetbrains.lsp.protocol.TypeHierarchyPrepareParams
+import com.jetbrains.lsp.protocol.URI
+
+/**
+ * The type hierarchy of the Java classes of the libraries and of the JDK, whose decompiled files the client opens
+ * through the server.
+ *
+ * Like the hover, the hierarchy is only prepared from such files, since a Java support installed along would answer
+ * for the Java sources as well; once prepared, the supertypes and subtypes are found in the sources too.
+ */
+internal object LSJavaTypeHierarchyProvider : LSTypeHierarchyProviderBase() {
+    override val supportedLanguages: Set<LSLanguage> = setOf(LSJavaLanguage)
+    override val uniqueId: LSUniqueConfigurationEntry.UniqueId = LSUniqueConfigurationEntry.UniqueId("java.typeHierarchy")
+
+    context(server: LSServer, handlerContext: LspHandlerContext)
+    override suspend fun prepareTypeHierarchy(params: TypeHierarchyPrepareParams): List<TypeHierarchyItem>? {
+        if (params.textDocument.uri.uri.scheme !in listOf(URI.Schemas.JRT, URI.Schemas.JAR, URI.Schemas.ZIP)) return null
+        return super.prepareTypeHierarchy(params)
+    }
+
+    override fun toPsiClass(element: PsiElement): PsiClass? = element as? PsiClass
+}
@@ -0,0 +1,48 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.kotlin.completion
+
+import com.intellij.openapi.application.Application
+import com.intellij.openapi.project.Project
+import com.jetbrains.analyzer.bootstrap.AnalyzerContainerBuilder
+import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
+import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceComponent
+import com.jetbrains.ls.snapshot.api.impl.core.WorkspaceEvent
+
+/**
+ * Keeps the copy of the file [LSKotlinCompletionProvider] applied completion items to last, so that applying many
+ * items, as resolving them does for some clients, does not parse the whole file for each.
+ *
+ * The copy is made of the file as of its last change, within the project of the server, so any change of the files or
+ * of the workspace model drops it, as does low memory.
+ */
+internal object KotlinCompletionCopyComponent : WorkspaceComponent<KotlinCompletionCopy> {
+    override fun init(configData: LSConfigurationData): KotlinCompletionCopy = KotlinCompletionCopy()
+
+    override fun handleEvent(event: WorkspaceEvent, state: KotlinCompletionCopy): KotlinCompletionCopy =
+        when (event) {
+            is WorkspaceEvent.InvalidateFiles, is WorkspaceEvent.WorkspaceModelChanged, WorkspaceEvent.LowMemory ->
+                KotlinCompletionCopy()
+        }
+
+    override suspend fun registerInApplicationContainer(
+        builder: AnalyzerContainerBuilder,
+        application: Application,
+        state: KotlinCompletionCopy,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+
+    override suspend fun registerInProjectContainer(
+        builder: AnalyzerContainerBuilder,
+        project: Project,
+        state: KotlinCompletionCopy,
+        contextKind: AnalyzerContextKind,
+    ) {
+    }
+}
+
+internal class KotlinCompletionCopy {
+    /** The copy of the file completed in last, only accessed under the write lock. */
+    var lastCopy: ModificationCopy? = null
+}
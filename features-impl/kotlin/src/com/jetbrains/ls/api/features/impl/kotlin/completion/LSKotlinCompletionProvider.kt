@@ -1,6 +1,9 @@
 // Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
 package com.jetbrains.ls.api.features.impl.kotlin.completion
 
+import com.intellij.openapi.diagnostic.getOrHandleException
+import com.intellij.openapi.diagnostic.logger
+import com.intellij.psi.PsiDocumentManager
 import com.intellij.psi.PsiFile
 import com.jetbrains.ls.api.core.LSAnalysisContext
 import com.jetbrains.ls.api.core.LSServer
@@ -12,6 +15,7 @@ import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
 import com.jetbrains.ls.api.features.impl.common.completion.LSCompletionProviderHelper
 import com.jetbrains.ls.api.features.impl.kotlin.language.LSKotlinLanguage
 import com.jetbrains.ls.api.features.language.LSLanguage
+import com.jetbrains.ls.api.features.textEdits.LocalTextEditsComputer
 import com.jetbrains.lsp.implementation.LspHandlerContext
 import com.jetbrains.lsp.protocol.CompletionItem
 import com.jetbrains.lsp.protocol.CompletionList
@@ -19,7 +23,9 @@ import com.jetbrains.lsp.protocol.CompletionParams
 import org.jetbrains.kotlin.analysis.api.KaImplementationDetail
 import org.jetbrains.kotlin.analysis.api.projectStructure.KaDanglingFileResolutionMode
 import org.jetbrains.kotlin.analysis.api.projectStructure.withDanglingFileResolutionMode
+import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtPsiFactory
+import kotlin.time.Duration.Companion.milliseconds
 
 internal object LSKotlinCompletionProvider : LSCompletionProvider, LSCommandDescriptorProvider {
 
@@ -28,23 +34,44 @@ internal object LSKotlinCompletionProvider : LSCompletionProvider, LSCommandDesc
     override val supportsResolveRequest: Boolean = true
 
     val fileForModificationProvider = object : LSCompletionProviderHelper.FileForModificationProvider {
+        /**
+         * Reuses the copy of the file completed in last, kept by [KotlinCompletionCopyComponent], as long as the file
+         * does not change: the edits applied to it are reverted afterward.
+         */
         @OptIn(KaImplementationDetail::class)
-        context(analysisContext: LSAnalysisContext)
+        context(server: LSServer, analysisContext: LSAnalysisContext)
         override fun <T> withFileForModification(physicalPsiFile: PsiFile, action: (fileForModification: PsiFile) -> T): T {
+            val holder = server[KotlinCompletionCopyComponent]
+            val copy = holder.lastCopy?.takeIf { it.isCopyOf(physicalPsiFile) }
+                ?: ModificationCopy(physicalPsiFile, createCopy(physicalPsiFile)).also { holder.lastCopy = it }
+            val fileForModification = copy.file
+            try {
+                return withDanglingFileResolutionMode(fileForModification, KaDanglingFileResolutionMode.IGNORE_SELF) {
+                    action(fileForModification)
+                }
+            } finally {
+                if (!copy.revert()) {
+                    holder.lastCopy = null
+                }
+            }
+        }
+
+        @OptIn(KaImplementationDetail::class)
+        context(analysisContext: LSAnalysisContext)
+        private fun createCopy(physicalPsiFile: PsiFile): KtFile {
             val ktPsiFactory = KtPsiFactory(project, eventSystemEnabled = true)
             val fileForModification = ktPsiFactory.createFile(physicalPsiFile.name, physicalPsiFile.text)
             fileForModification.originalFile = physicalPsiFile
-
-            return withDanglingFileResolutionMode(fileForModification, KaDanglingFileResolutionMode.IGNORE_SELF) {
-                action(fileForModification)
-            }
+            return fileForModification
         }
     }
+
     private val helper = LSCompletionProviderHelper(
         language = LSKotlinLanguage,
         uniqueId = uniqueId,
         applyCompletionCommandKey = "jetbrains.kotlin.completion.apply",
         completionDataKey = "KotlinCompletionItemKey",
+        completionDeadline = 500.milliseconds,
     )
 
     override val commandDescriptors: List<LSCommandDescriptor> = helper.createCommandDescriptors(fileForModificationProvider)
@@ -57,3 +84,30 @@ internal object LSKotlinCompletionProvider : LSCompletionProvider, LSCommandDesc
     override suspend fun resolveCompletion(completionItem: CompletionItem): CompletionItem? =
         helper.resolveCompletion(completionItem, fileForModificationProvider)
 }
+
+internal class ModificationCopy(private val physicalFile: PsiFile, val file: KtFile) {
+    private val text: String = physicalFile.text
+    private val modificationStamp: Long = physicalFile.modificationStamp
+
+    fun isCopyOf(physicalFile: PsiFile): Boolean =
+        physicalFile === this.physicalFile && physicalFile.modificationStamp == modificationStamp
+
+    /**
+     * Restores the text of the copy by replacing back the lines changed since it was made, and tells whether the copy
+     * can be reused.
+     */
+    fun revert(): Boolean = runCatching {
+        val documentManager = PsiDocumentManager.getInstance(file.project)
+        val document = file.fileDocument
+        documentManager.doPostponedOperationsAndUnblockDocument(document)
+        LocalTextEditsComputer.findChangedLines(text, document.charsSequence)?.let { changed ->
+            document.replaceString(changed.startOffset, changed.newEndOffset, text.substring(changed.startOffset, changed.oldEndOffset))
+            documentManager.commitDocument(document)
+        }
+        file.text == text
+    }.getOrHandleException {
+        LOG.warn("Cannot revert the completion copy of ${physicalFile.name}", it)
+    } ?: false
+}
+
+private val LOG = logger<LSKotlinCompletionProvider>()
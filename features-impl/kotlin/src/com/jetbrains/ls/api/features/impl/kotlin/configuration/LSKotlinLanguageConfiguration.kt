@@ -29,6 +29,7 @@ import com.jetbrains.ls.api.features.impl.kotlin.apiImpl.LLFirSessionCacheStorag
 import com.jetbrains.ls.api.features.impl.kotlin.callHierarchy.LSKotlinCallHierarchyProvider
 import com.jetbrains.ls.api.features.impl.kotlin.callHierarchy.LSKotlinCallHierarchyRenderer
 import com.jetbrains.ls.api.features.impl.kotlin.codeActions.LSKotlinOrganizeImportsCodeActionProvider
+import com.jetbrains.ls.api.features.impl.kotlin.completion.KotlinCompletionCopyComponent
 import com.jetbrains.ls.api.features.impl.kotlin.completion.LSKotlinCompletionProvider
 import com.jetbrains.ls.api.features.impl.kotlin.definitions.LSKotlinPackageDefinitionProvider
 import com.jetbrains.ls.api.features.impl.kotlin.diagnostics.compiler.LSKotlinCompilerDiagnosticsFixesCodeActionProvider
@@ -48,6 +49,7 @@ import com.jetbrains.ls.api.features.impl.kotlin.semanticTokens.LSKotlinSemantic
 import com.jetbrains.ls.api.features.impl.kotlin.signatureHelp.LSKotlinSignatureHelpProvider
 import com.jetbrains.ls.api.features.impl.kotlin.symbols.LSKotlinDocumentSymbolProvider
 import com.jetbrains.ls.api.features.impl.kotlin.symbols.LSKotlinWorkspaceSymbolProvider
+import com.jetbrains.ls.api.features.impl.kotlin.typeHierarchy.LSKotlinTypeHierarchyProvider
 import com.jetbrains.ls.api.features.language.LSConfigurationPiece
 import com.jetbrains.ls.snapshot.api.impl.core.AnalyzerContextKind
 import com.jetbrains.ls.snapshot.api.impl.core.LSConfigurationData
@@ -60,6 +62,7 @@ val LSKotlinLanguageConfiguration: LSConfigurationPiece = LSConfigurationPiece(
     entries = listOf(
         WorkspaceComponentEntry { KotlinWorkspaceComponent },
         WorkspaceComponentEntry { LLFirSessionCacheStorageComponent },
+        WorkspaceComponentEntry { KotlinCompletionCopyComponent },
         LSKotlinOrganizeImportsCodeActionProvider,
         LSKotlinCompletionProvider,
         LSCommonDefinitionProvider(setOf(LSKotlinLanguage), TargetKind.ALL),
@@ -72,8 +75,14 @@ val LSKotlinLanguageConfiguration: LSConfigurationPiece = LSConfigurationPiece(
             supportedLanguages = setOf(LSKotlinLanguage),
             inspectionBlacklist = kotlinInspectionBlacklist,
             quickFixBlacklist = kotlinQuickFixBlacklist,
+            lazyQuickFixes = true,
+            incrementalLocalInspections = true,
+        ),
+        LSCommonInspectionFixesCodeActionProvider(
+            supportedLanguages = setOf(LSKotlinLanguage),
+            inspectionBlacklist = kotlinInspectionBlacklist,
+            quickFixBlacklist = kotlinQuickFixBlacklist,
         ),
-        LSCommonInspectionFixesCodeActionProvider(setOf(LSKotlinLanguage)),
         LSCommonIntentionFixesCodeActionProvider(
             supportedLanguages = setOf(LSKotlinLanguage),
             inspectionBlacklist = kotlinInspectionBlacklist,
@@ -103,7 +112,8 @@ val LSKotlinLanguageConfiguration: LSConfigurationPiece = LSConfigurationPiece(
             }
         },
         LSKotlinCallHierarchyProvider,
-        LSKotlinCallHierarchyRenderer
+        LSKotlinCallHierarchyRenderer,
+        LSKotlinTypeHierarchyProvider,
     ),
     plugins = listOf(
         kotlinPlugin,
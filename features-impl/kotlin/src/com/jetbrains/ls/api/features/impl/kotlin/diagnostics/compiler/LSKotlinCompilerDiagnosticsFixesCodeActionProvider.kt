@@ -29,9 +29,11 @@ import kotlinx.coroutines.flow.flow
 import org.jetbrains.kotlin.analysis.api.KaSession
 import org.jetbrains.kotlin.analysis.api.components.KaDiagnosticCheckerFilter
 import org.jetbrains.kotlin.analysis.api.components.collectDiagnostics
+import org.jetbrains.kotlin.analysis.api.components.diagnostics
 import org.jetbrains.kotlin.analysis.api.diagnostics.KaDiagnosticWithPsi
 import org.jetbrains.kotlin.analysis.api.session.analyze
 import org.jetbrains.kotlin.idea.codeinsight.api.applicators.fixes.KotlinQuickFixService
+import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtFile
 
 private val LOG = logger<LSKotlinCompilerDiagnosticsFixesCodeActionProvider>()
@@ -52,14 +54,21 @@ internal object LSKotlinCompilerDiagnosticsFixesCodeActionProvider : LSCodeActio
                 val ktFile = virtualFile.findPsiFile(project) as? KtFile ?: return@readAction emptyList()
                 val document = virtualFile.findDocument() ?: return@readAction emptyList()
                 analyze(ktFile) {
-                    val kaDiagnostics = ktFile.collectDiagnostics(filter = KaDiagnosticCheckerFilter.ONLY_COMMON_CHECKERS)
-                    if (kaDiagnostics.isEmpty()) return@analyze emptyList()
+                    // Only checked if a diagnostic is not found on its own element, see findKaDiagnostic. The first of
+                    // the diagnostics with the same data is kept, as a search of the elements would find it first.
+                    val fileDiagnostics by lazy(LazyThreadSafetyMode.NONE) {
+                        val diagnostics = HashMap<KotlinCompilerDiagnosticData, KaDiagnosticWithPsi<*>>()
+                        for (diagnostic in ktFile.collectDiagnostics(filter = KaDiagnosticCheckerFilter.ONLY_COMMON_CHECKERS)) {
+                            diagnostics.putIfAbsent(KotlinCompilerDiagnosticData.create(diagnostic, virtualFile), diagnostic)
+                        }
+                        diagnostics
+                    }
                     val editor = ImaginaryEditor(project, document).apply {
                         caretModel.primaryCaret.moveToOffset(0)
                     }
                     val result = mutableListOf<CodeAction>()
                     for (data in diagnosticData) {
-                        val kaDiagnostic = kaDiagnostics.firstOrNull { data.data.matches(it) } ?: continue
+                        val kaDiagnostic = findKaDiagnostic(ktFile, data.data) { fileDiagnostics } ?: continue
                         with(quickFixService) {
                             result += getQuickFixesAsCodeActions(
                                 ktFile,
@@ -75,6 +84,27 @@ internal object LSKotlinCompilerDiagnosticsFixesCodeActionProvider : LSCodeActio
         }.forEach { emit(it) }
     }
 
+    /**
+     * Finds the diagnostic described by [data] among the diagnostics of its own element, which only requires
+     * checking the declaration containing it. The whole file, as indexed by [fileDiagnostics], is only checked
+     * for a diagnostic not reported on a [KtElement] or not found on its element.
+     *
+     * The diagnostics cannot be shared with [LSKotlinCompilerDiagnosticsProvider]: a [KaDiagnosticWithPsi] is only
+     * valid within the analysis session it was reported in, and the fixes are computed in a write analysis context.
+     */
+    context(kaSession: KaSession)
+    private fun findKaDiagnostic(
+        ktFile: KtFile,
+        data: KotlinCompilerDiagnosticData,
+        fileDiagnostics: () -> Map<KotlinCompilerDiagnosticData, KaDiagnosticWithPsi<*>>,
+    ): KaDiagnosticWithPsi<*>? {
+        val element = data.psi.restore(ktFile) as? KtElement
+        val elementDiagnostic = element
+            ?.diagnostics(filter = KaDiagnosticCheckerFilter.ONLY_COMMON_CHECKERS)
+            ?.firstOrNull { data.matches(it) }
+        return elementDiagnostic ?: fileDiagnostics()[data]
+    }
+
     context(server: LSServer, kaSession: KaSession)
     private fun KotlinQuickFixService.getQuickFixesAsCodeActions(
         file: KtFile,
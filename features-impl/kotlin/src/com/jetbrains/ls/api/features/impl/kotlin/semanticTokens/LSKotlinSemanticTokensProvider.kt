@@ -47,11 +47,19 @@ import org.jetbrains.kotlin.analysis.api.symbols.KaValueParameterSymbol
 import org.jetbrains.kotlin.analysis.api.symbols.KaVariableSymbol
 import org.jetbrains.kotlin.builtins.StandardNames
 import org.jetbrains.kotlin.idea.references.mainReference
+import org.jetbrains.kotlin.lexer.KtTokens
 import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.psi.KtClass
+import org.jetbrains.kotlin.psi.KtEnumEntry
 import org.jetbrains.kotlin.psi.KtFile
 import org.jetbrains.kotlin.psi.KtNamedDeclaration
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtObjectDeclaration
 import org.jetbrains.kotlin.psi.KtParameter
+import org.jetbrains.kotlin.psi.KtProperty
 import org.jetbrains.kotlin.psi.KtSimpleNameExpression
+import org.jetbrains.kotlin.psi.KtTypeParameter
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
 
 private val LOG = logger<LSKotlinSemanticTokensProvider>()
 
@@ -75,6 +83,80 @@ object LSKotlinSemanticTokensProvider : LSSemanticTokensProviderBase() {
         }
     }
 
+    /**
+     * The tokens of the declarations, found from their PSI alone. Their modifiers which need resolve, such as
+     * `deprecated`, only come with the resolved tokens.
+     */
+    context(server: LSServer)
+    override fun getSyntacticSemanticTokens(psiFile: PsiFile, document: Document): List<LSSemanticTokenWithRange>? {
+        if (psiFile !is KtFile) return null
+        return psiFile.collectDescendantsOfType<KtNamedDeclaration>().mapNotNull { declaration ->
+            val nameIdentifier = declaration.nameIdentifier ?: return@mapNotNull null
+            val token = getSyntacticToken(declaration) ?: return@mapNotNull null
+            LSSemanticTokenWithRange(
+                token.withModifiers(LSSemanticTokenModifierPredefined.DECLARATION),
+                nameIdentifier.textRange.toLspRange(document),
+            )
+        }
+    }
+
+    private fun getSyntacticToken(declaration: KtNamedDeclaration): LSSemanticToken? {
+        val type = when (declaration) {
+            is KtEnumEntry -> LSSemanticTokenTypePredefined.ENUM_MEMBER
+            is KtClass -> when {
+                declaration.isInterface() -> LSSemanticTokenTypePredefined.INTERFACE
+                declaration.isEnum() -> LSSemanticTokenTypePredefined.ENUM
+                declaration.isAnnotation() -> LSSemanticTokenTypePredefined.DECORATOR
+                declaration.isData() -> LSSemanticTokenTypePredefined.STRUCT
+                else -> LSSemanticTokenTypePredefined.CLASS
+            }
+
+            is KtObjectDeclaration -> LSSemanticTokenTypePredefined.TYPE
+            is KtTypeParameter -> LSSemanticTokenTypePredefined.TYPE_PARAMETER
+            is KtNamedFunction -> when {
+                declaration.hasModifier(KtTokens.OPERATOR_KEYWORD) -> LSSemanticTokenTypePredefined.OPERATOR
+                declaration.isTopLevel || declaration.isLocal -> LSSemanticTokenTypePredefined.FUNCTION
+                else -> LSSemanticTokenTypePredefined.METHOD
+            }
+
+            is KtProperty -> when {
+                declaration.isLocal -> LSSemanticTokenTypePredefined.VARIABLE
+                else -> LSSemanticTokenTypePredefined.PROPERTY
+            }
+
+            is KtParameter -> when {
+                declaration.isFunctionTypeParameter -> null
+                declaration.hasValOrVar() -> LSSemanticTokenTypePredefined.PROPERTY
+                else -> LSSemanticTokenTypePredefined.PARAMETER
+            }
+
+            // A type alias is highlighted as the type it expands to, which needs resolve.
+            else -> null
+        } ?: return null
+        val modifiers = buildList {
+            val isMutable = when (declaration) {
+                is KtProperty -> declaration.isVar
+                is KtParameter -> declaration.isMutable
+                else -> null
+            }
+            when (isMutable) {
+                true -> add(LSSemanticTokenModifierPredefined.MODIFICATION)
+                false -> add(LSSemanticTokenModifierPredefined.READONLY)
+                null -> {}
+            }
+            if (declaration.hasModifier(KtTokens.SUSPEND_KEYWORD)) {
+                add(LSSemanticTokenModifierPredefined.ASYNC)
+            }
+            if (declaration is KtNamedFunction && declaration.isTopLevel || declaration is KtProperty && declaration.isTopLevel) {
+                add(LSSemanticTokenModifierPredefined.STATIC)
+            }
+            if (declaration.hasModifier(KtTokens.ABSTRACT_KEYWORD)) {
+                add(LSSemanticTokenModifierPredefined.ABSTRACT)
+            }
+        }
+        return LSSemanticToken(type, modifiers)
+    }
+
     context(server: LSServer, kaSession: KaSession)
     private fun PsiElement.getRangeWithToken(document: Document): LSSemanticTokenWithRange? = try {
         val psiElement = this
@@ -89,8 +171,8 @@ object LSKotlinSemanticTokensProvider : LSSemanticTokensProviderBase() {
                 is KtParameter if isFunctionTypeParameter -> null
 
                 is KtNamedDeclaration -> {
-                    // todo should probably be implemented on the vscode side
-                    //  or, if on the lsp server side, then it should work on PSI, without resolve which is faster
+                    // The tokens found without resolve come first from getSyntacticSemanticTokens;
+                    //  resolve adds the modifiers PSI cannot tell, such as `deprecated` and `defaultLibrary`
                     val nameIdentifier = psiElement.nameIdentifier ?: return null
                     val token = getRangeWithToken(psiElement.symbol) ?: return null
                     LSSemanticTokenWithRange(
@@ -0,0 +1,27 @@
+// Copyright 2000-2026 JetBrains s.r.o. and contributors. Use of this source code is governed by the Apache 2.0 license.
+package com.jetbrains.ls.api.features.impl.kotlin.typeHierarchy
+
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiElement
+import com.jetbrains.ls.api.features.configuration.LSUniqueConfigurationEntry
+import com.jetbrains.ls.api.features.impl.common.typeHierarchy.LSTypeHierarchyProviderBase
+import com.jetbrains.ls.api.features.impl.kotlin.language.LSKotlinLanguage
+import com.jetbrains.ls.api.features.impl.kotlin.symbols.getKind
+import com.jetbrains.ls.api.features.language.LSLanguage
+import com.jetbrains.lsp.protocol.SymbolKind
+import org.jetbrains.kotlin.asJava.toLightClass
+import org.jetbrains.kotlin.psi.KtClassOrObject
+
+internal object LSKotlinTypeHierarchyProvider : LSTypeHierarchyProviderBase() {
+    override val supportedLanguages: Set<LSLanguage> = setOf(LSKotlinLanguage)
+    override val uniqueId: LSUniqueConfigurationEntry.UniqueId = LSUniqueConfigurationEntry.UniqueId("kotlin.typeHierarchy")
+
+    override fun toPsiClass(element: PsiElement): PsiClass? = when (element) {
+        is KtClassOrObject -> element.toLightClass()
+        is PsiClass -> element
+        else -> null
+    }
+
+    override fun getSymbolKind(declaration: PsiElement): SymbolKind? =
+        if (declaration is KtClassOrObject) declaration.getKind() else super.getSymbolKind(declaration)
+}